@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Compiled modules shared by all workspaces of current user. Each entry is
+ * a directory named by hash of compiler inputs, so it never changes once
+ * written. Entries are filled by copying, and restored into ebin by hard
+ * links when possible, as compiler replaces .beam files rather than
+ * rewriting them.
+ */
+class BeamCache {
+    private static BeamCache instance = null;
+    private final File rootDir;
+
+    static synchronized BeamCache getInstance() {
+        if (null == instance) {
+            instance = new BeamCache(new File(System.getenv("HOME") + "/.erlyide/beam_cache"));
+        }
+        return instance;
+    }
+
+    private BeamCache(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    private File entryDir(String key) {
+        return new File(rootDir, key.substring(0, 2) + "/" + key);
+    }
+
+    List<String> restore(String key, File outDir) {
+        // Returns names of restored .beam files, or null if there is no such entry
+        File[] cachedFiles = entryDir(key).listFiles();
+        if (null == cachedFiles || 0 == cachedFiles.length) {
+            return null;
+        }
+        List<String> result = new LinkedList<>();
+        try {
+            outDir.mkdirs();
+            for (File cachedFile : cachedFiles) {
+                final File outFile = new File(outDir, cachedFile.getName());
+                // Hard link shares its time with cache entry and other workspaces, so it is never touched
+                linkOrCopy(cachedFile.toPath(), outFile.toPath());
+                result.add(outFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return result;
+    }
+
+    void store(String key, List<String> beamFileNames) {
+        final File entryDir = entryDir(key);
+        if (entryDir.exists() || beamFileNames.isEmpty()) {
+            return;
+        }
+        // Entry is prepared aside and then renamed, so other IDE instances never see it partially written
+        File tempDir = null;
+        try {
+            entryDir.getParentFile().mkdirs();
+            tempDir = Files.createTempDirectory(entryDir.getParentFile().toPath(), key + ".tmp").toFile();
+            for (String beamFileName : beamFileNames) {
+                final File beamFile = new File(beamFileName);
+                Files.copy(beamFile.toPath(), new File(tempDir, beamFile.getName()).toPath());
+            }
+            Files.move(tempDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Most likely someone else stored the same entry right now
+            if (null != tempDir) {
+                removeDir(tempDir);
+            }
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Different file systems or no hard links support
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void removeDir(File dir) {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
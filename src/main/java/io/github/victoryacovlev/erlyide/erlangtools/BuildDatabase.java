@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers for each module a hash of everything it was compiled from:
+ * source, included headers and compile options. File content hashes are
+ * cached by file stamp, so unchanged files are not read on every build.
+ */
+class BuildDatabase {
+    // Some file systems keep modification time in 1 or 2 second units
+    private static final long FILE_TIME_GRANULARITY_MILLIS = 2000;
+
+    private final File storageFile;
+    private final Map<String, String> fileStamps = new HashMap<>();
+    private final Map<String, String> fileHashes = new HashMap<>();
+    private final Map<String, String> moduleInputs = new HashMap<>();
+    private boolean changed = false;
+
+    BuildDatabase(File storageFile) {
+        this.storageFile = storageFile;
+        load();
+    }
+
+    static String hashOf(String data) {
+        return hashOf(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String hashOf(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    synchronized String fileHash(File file) {
+        final String path = file.getAbsolutePath();
+        final FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(file.toPath());
+        } catch (IOException e) {
+            // Missing file must not look like an unchanged one
+            return "missing:" + path;
+        }
+        final String stamp = modified.to(TimeUnit.NANOSECONDS) + ":" + file.length();
+        if (stamp.equals(fileStamps.get(path)) && fileHashes.containsKey(path)) {
+            return fileHashes.get(path);
+        }
+        String hash;
+        try {
+            hash = hashOf(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            return "missing:" + path;
+        }
+        if (System.currentTimeMillis() - modified.toMillis() < FILE_TIME_GRANULARITY_MILLIS) {
+            // File may be written again within the same time unit keeping its stamp,
+            // so hash is not trusted until the file is older than that
+            return hash;
+        }
+        fileStamps.put(path, stamp);
+        fileHashes.put(path, hash);
+        changed = true;
+        return hash;
+    }
+
+    synchronized boolean isUpToDate(String sourcePath, String inputsHash) {
+        return inputsHash.equals(moduleInputs.get(sourcePath));
+    }
+
+    synchronized boolean isKnown(String sourcePath) {
+        return moduleInputs.containsKey(sourcePath);
+    }
+
+    synchronized void setInputsHash(String sourcePath, String inputsHash) {
+        if (!inputsHash.equals(moduleInputs.put(sourcePath, inputsHash))) {
+            changed = true;
+        }
+    }
+
+    synchronized void forget(String sourcePath) {
+        if (null != moduleInputs.remove(sourcePath)) {
+            changed = true;
+        }
+    }
+
+    synchronized void retainFiles(Set<String> paths) {
+        changed |= moduleInputs.keySet().retainAll(paths);
+        changed |= fileHashes.keySet().retainAll(paths);
+        fileStamps.keySet().retainAll(paths);
+    }
+
+    private void load() {
+        if (!storageFile.exists()) {
+            return;
+        }
+        try {
+            String data = new String(Files.readAllBytes(storageFile.toPath()), StandardCharsets.UTF_8);
+            JSONObject root = new JSONObject(data);
+            JSONObject jsonFiles = root.getJSONObject("files");
+            for (String path : jsonFiles.keySet()) {
+                JSONObject jsonFile = jsonFiles.getJSONObject(path);
+                fileStamps.put(path, jsonFile.getString("stamp"));
+                fileHashes.put(path, jsonFile.getString("hash"));
+            }
+            JSONObject jsonModules = root.getJSONObject("modules");
+            for (String path : jsonModules.keySet()) {
+                moduleInputs.put(path, jsonModules.getString(path));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        JSONObject jsonFiles = new JSONObject();
+        for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+            JSONObject jsonFile = new JSONObject();
+            jsonFile.put("stamp", fileStamps.get(entry.getKey()));
+            jsonFile.put("hash", entry.getValue());
+            jsonFiles.put(entry.getKey(), jsonFile);
+        }
+        JSONObject root = new JSONObject();
+        root.put("files", jsonFiles);
+        root.put("modules", new JSONObject(moduleInputs));
+        try {
+            storageFile.getParentFile().mkdirs();
+            Files.write(storageFile.toPath(), root.toString().getBytes(StandardCharsets.UTF_8));
+            changed = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -16,13 +16,16 @@
 
 package io.github.victoryacovlev.erlyide.erlangtools;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class CompileResult {
     private List<String> outputFileNames;
     private List<String> upToDateFileNames;
     private List<ErlErrorInfo> errorsAndWarnings;
+    private Map<String, byte[]> moduleBinaries = new LinkedHashMap<>();
 
     public CompileResult(String outputFileName, List<ErlErrorInfo> errorsAndWarnings) {
         if (outputFileName!=null) {
@@ -40,11 +43,24 @@ public class CompileResult {
         this.errorsAndWarnings = errorsAndWarnings;
     }
 
+    public CompileResult(String moduleName, byte[] moduleBinary, List<ErlErrorInfo> errorsAndWarnings) {
+        // Compiled in memory, nothing was written into ebin
+        outputFileNames = null;
+        if (moduleName!=null) {
+            moduleBinaries.put(moduleName, moduleBinary);
+        }
+        this.errorsAndWarnings = errorsAndWarnings;
+    }
+
     public List<String> getOutputFileNames() {
         if (null==outputFileNames) return new LinkedList<>();
         else return outputFileNames;
     }
 
+    public Map<String, byte[]> getModuleBinaries() {
+        return moduleBinaries;
+    }
+
     public List<ErlErrorInfo> getErrorsAndWarnings() {
         return errorsAndWarnings;
     }
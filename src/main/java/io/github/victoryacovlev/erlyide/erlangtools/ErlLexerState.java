@@ -0,0 +1,21 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+public enum ErlLexerState {
+    NORMAL, IN_STRING, IN_QUOTED_ATOM, IN_TRIPLE_QUOTED_STRING
+}
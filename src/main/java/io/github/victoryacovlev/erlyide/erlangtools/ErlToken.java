@@ -40,6 +40,10 @@ public class ErlToken {
         this.text = text;
         this.line = line;
         this.column = column;
+        if (type.equals("char")) {
+            // $c is just another form of integer
+            type = "integer";
+        }
         if (text.equals(type) && !type.equals("string")) {
             if (containsOnlyKeywordsSymbols(type))
                 this.type = Category.RESERVED_WORD;
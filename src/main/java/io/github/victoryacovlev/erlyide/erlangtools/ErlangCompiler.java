@@ -20,12 +20,16 @@ import com.ericsson.otp.erlang.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ErlangCompiler {
     private final ErlangVM vm;
@@ -53,39 +57,21 @@ public class ErlangCompiler {
             "xor"
     ));
 
-    private static final List<String> OPERATORS_RX = new LinkedList<>(Arrays.asList(
-            "<=", ">=", "=/=", "<<", ">>", "\"", "'", "->", "#", "::",
-            "\\(", "\\)", "\\[", "\\]", "\\{", "\\}", "\\|\\|", "\\|", "\\.", ";", ":", ",", "%",
-            "\\+", "-", "\\*", "/", "<", ">", "\\u003D", "\\u003f"
-    ));
-
     private static final List<String> OPERATORS = new LinkedList<>(Arrays.asList(
             "<=", ">=", "=/=", "<<", ">>", "\"", "'", "->", "::",
             "(", ")", "[", "]", "{", "}", "||", "|", ".", ";", ":", ",", "%",
             "+", "-", "*", "/", "<", ">", "=", "?"
     ));
 
-    private static final Pattern lexerPattern;
+    private final ErlangLexer lexer = new ErlangLexer();
 
-    static {
-        StringBuilder sb = new StringBuilder();
-        for (int i=0; i<KEYWORDS.size(); ++i) {
-            sb.append("\\b"+KEYWORDS.get(i)+"\\b");
-            if (i<KEYWORDS.size()-1)
-                sb.append("|");
-        }
-        sb.append("|");
-        for (int i = 0; i< OPERATORS_RX.size(); ++i) {
-            sb.append(OPERATORS_RX.get(i));
-            if (i<OPERATORS_RX.size()-1)
-                sb.append("|");
-        }
-        sb.append("|\\s+");
-        final String rxPattern = sb.toString();
-        lexerPattern = Pattern.compile(rxPattern);
-    }
+    private final ExecutorService asyncExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Erlang compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public static ErlangCompiler getInstance() {
+    public static synchronized ErlangCompiler getInstance() {
         if (null == instance) {
             try {
                 ErlangVM vm = ErlangVM.getInstance();
@@ -101,250 +87,128 @@ public class ErlangCompiler {
         return instance;
     }
 
-    public SplitResult splitLineIntoLexems(final String text, int lineNo) {
-        SplitResult result = splitIntoLexemsUsingErlangApi(text, lineNo);
-//        SplitResult result = null;
-        if (null==result) {
-            result = splitLineIntoLexemsFallback(text, lineNo);
-            result = specializeRegularTokens(result);
-            result = removeQuotesToMatchErlangOuput(result);
-            result = detectNumberForms(result);
+    public List<SplitResult> splitLinesIntoLexemsLocally(final List<String> lines, int firstLineNo, ErlLexerState initialState) {
+        // Never calls Erlang node, so safe to use from UI thread
+        List<SplitResult> results = new ArrayList<>(lines.size());
+        ErlLexerState state = initialState;
+        for (int i=0; i<lines.size(); ++i) {
+            SplitResult result = lexer.splitLineIntoLexems(lines.get(i), firstLineNo + i, state);
+            results.add(detectSpecialTypes(result, lines.get(i)));
+            state = result.endState;
         }
-        return detectSpecialTypes(result, text);
+        return results;
     }
 
-    private SplitResult detectNumberForms(SplitResult result) {
-        LinkedList<ErlToken> newTokens = new LinkedList<>();
-        for (int i=0; i<result.tokens.size(); ) {
-            ErlToken token = result.tokens.get(i);
-            if (i < result.tokens.size()-2 && ErlToken.Category.INTEGER == token.type) {
-                ErlToken next = result.tokens.get(i+1);
-                ErlToken nextNext = result.tokens.get(i+2);
-                boolean nextIsNumberFormOperator = next.text.equals(".") || next.equals("#");
-                boolean integerAfterOperator = nextNext.type == ErlToken.Category.INTEGER;
-                if (nextIsNumberFormOperator && integerAfterOperator) {
-                    token.text += next.text + nextNext.text;
-                    if (next.text.equals("."))
-                        token.type = ErlToken.Category.FLOAT;
-                    i += 3;
-                }
-                else {
-                    ++i;
+    public CompletableFuture<List<SplitResult>> splitLinesIntoLexemsAsync(final List<String> lines, final List<Integer> lineNumbers) {
+        return splitIntoLexemsUsingErlangApiAsync(lines, lineNumbers).thenApply(results -> {
+            if (null != results) {
+                for (int i=0; i<results.size(); ++i) {
+                    if (null != results.get(i)) {
+                        detectSpecialTypes(results.get(i), lines.get(i));
+                    }
                 }
             }
-            else {
-                ++i;
-            }
-            newTokens.add(token);
-        }
-        return new SplitResult(newTokens, result.error);
+            return results;
+        });
     }
 
-    private SplitResult removeQuotesToMatchErlangOuput(SplitResult result) {
-        for (ErlToken token : result.tokens) {
-            if (ErlToken.Category.ATOM == token.type || ErlToken.Category.STRING == token.type) {
-                final String text = token.text;
-                if (text.startsWith("\"") && text.endsWith("\"")) {
-                    token.text = text.substring(1, text.length()-1);
-                }
-                else if (text.startsWith("'") && text.endsWith("'")) {
-                    token.text = text.substring(1, text.length()-1);
-                }
-            }
+    CompletableFuture<List<SplitResult>> splitIntoLexemsUsingErlangApiAsync(final List<String> lines, final List<Integer> lineNumbers) {
+        OtpErlangObject[] erlLines = new OtpErlangObject[lines.size()];
+        for (int i=0; i<lines.size(); ++i) {
+            erlLines[i] = new OtpErlangTuple(new OtpErlangObject[]{
+                    new OtpErlangInt(lineNumbers.get(i)),
+                    new OtpErlangString(lines.get(i))
+            });
         }
-        return result;
-    }
-
-    private SplitResult specializeRegularTokens(SplitResult result) {
-        for (ErlToken token : result.tokens) {
-            if (ErlToken.Category.UNDEFINED == token.type && token.text.length() > 0) {
-                final String text = token.text;
-                if (isReservedWord(text)) {
-                    token.type = ErlToken.Category.RESERVED_WORD;
-                }
-                else if (isOperator(text)) {
-                    token.type = ErlToken.Category.OPERATOR;
-                }
-                else {
-                    final char firstLetter = token.text.charAt(0);
-                    final String Capitals = "_ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-                    final String Lowers = "abcdefghijklmnopqrstuvwxyz";
-                    final String Digits = "0123456789";
-                    if (Capitals.contains("" + firstLetter))
-                        token.type = ErlToken.Category.VAR;
-                    else if (Lowers.contains("" + firstLetter))
-                        token.type = ErlToken.Category.ATOM;
-                    else if (Digits.contains("" + firstLetter))
-                        token.type = ErlToken.Category.INTEGER;
-                }
+        return vm.runAsync("erlide_syntax_check", "scan_lines", new OtpErlangList(new OtpErlangObject[]{
+                new OtpErlangList(erlLines)
+        })).handle((reply, error) -> {
+            if (null != error) {
+                error.printStackTrace();
+                return null;
             }
-        }
-        return result;
+            return parseScanLinesReply(reply, lines.size());
+        });
     }
 
-    SplitResult splitIntoLexemsUsingErlangApi(final String text, int lineNo) {
-        SplitResult result = null;
+    List<SplitResult> parseScanLinesReply(OtpErlangObject reply, int linesCount) {
+        if (!(reply instanceof OtpErlangList)) {
+            System.err.println("Error scanning lines: " + reply);
+            return null;
+        }
+        List<SplitResult> result = new ArrayList<>(linesCount);
         try {
-            OtpErlangTuple scanResult = (OtpErlangTuple)
-                    vm.run("erl_scan", "string", new OtpErlangList(new OtpErlangObject[]{
-                            new OtpErlangString(text),
-                            new OtpErlangTuple(new OtpErlangObject[]{
-                                    new OtpErlangInt(lineNo),
-                                    new OtpErlangInt(1)
-                            }),
-//                            new OtpErlangInt(startLine),
-                            new OtpErlangList(new OtpErlangObject[]{
-                                    new OtpErlangAtom("return"),
-                                    new OtpErlangAtom("return_white_spaces"),
-                                    new OtpErlangAtom("return_comments")
-                            })
-                    }));
-            final String status = ((OtpErlangAtom) scanResult.elementAt(0)).atomValue();
-            if (status.equals("ok")) {
-                List<ErlToken> tokens = new LinkedList<>();
-                for (OtpErlangObject itemObject : (OtpErlangList) scanResult.elementAt(1)) {
-                    OtpErlangTuple token = (OtpErlangTuple) itemObject;
-                    String category = ((OtpErlangAtom)(token.elementAt(0))).atomValue();
-                    OtpErlangObject location = token.elementAt(1);
-                    int line = 0;
-                    int col = 0;
-                    if (location instanceof OtpErlangLong) {
-                        col = ((OtpErlangLong) location).intValue();
-                    }
-                    else if (location instanceof OtpErlangTuple) {
-                        OtpErlangTuple pair = (OtpErlangTuple) location;
-                        line = ((OtpErlangLong) pair.elementAt(0)).intValue();
-                        col = ((OtpErlangLong) pair.elementAt(1)).intValue();
-                    }
-                    String value = "";
-                    if (token.arity() > 2 && category.length()!=1) {
-                        OtpErlangObject valueObject = token.elementAt(2);
-                        if (valueObject instanceof OtpErlangString) {
-                            value = ((OtpErlangString) valueObject).stringValue();
-                        }
-                        else if (valueObject instanceof OtpErlangAtom) {
-                            value = ((OtpErlangAtom) valueObject).atomValue();
+            for (OtpErlangObject scanResultObject : (OtpErlangList) reply) {
+                OtpErlangTuple scanResult = (OtpErlangTuple) scanResultObject;
+                final String status = ((OtpErlangAtom) scanResult.elementAt(0)).atomValue();
+                if (status.equals("ok")) {
+                    List<ErlToken> tokens = new ArrayList<>();
+                    for (OtpErlangObject itemObject : (OtpErlangList) scanResult.elementAt(1)) {
+                        ErlToken token = parseErlangToken((OtpErlangTuple) itemObject);
+                        if (null != token) {
+                            tokens.add(token);
                         }
-                        else if (valueObject instanceof OtpErlangLong) {
-                            value = Long.toString(((OtpErlangLong) valueObject).longValue());
-                        }
-                        else if (valueObject instanceof OtpErlangDouble) {
-                            value = Double.toString(((OtpErlangDouble) valueObject).doubleValue());
-                        }
-                    }
-                    else if (category.equals("dot")) {
-                        value = ".";
-                    }
-                    else if (category.length() <= 3){
-                        value = category; // in case of operator
                     }
-                    if (category.equals("atom") || category.equals(value) || value.isEmpty()) {
-                        OtpErlangAtom isReservedWord = (OtpErlangAtom) vm.run("erl_scan", "reserved_word", new OtpErlangList(new OtpErlangObject[]{
-                                itemObject
-                        }));
-                        if (isReservedWord.booleanValue()) {
-                            category = "reserved_word";
-                        }
-                    }
-                    ErlToken erlToken = new ErlToken(category, line, col, value);
-                    tokens.add(erlToken);
+                    result.add(new SplitResult(tokens, null));
+                }
+                else {
+                    result.add(null);
                 }
-                return new SplitResult(tokens, null);
-            }
-            else {
-
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (OtpErlangExit otpErlangExit) {
-            otpErlangExit.printStackTrace();
-        } catch (OtpAuthException e) {
-            e.printStackTrace();
-        } catch (OtpErlangDecodeException e) {
-            e.printStackTrace();
         } catch (OtpErlangRangeException e) {
             e.printStackTrace();
+            return null;
         }
         return result;
     }
 
-    private SplitResult splitLineIntoLexemsFallback(final String line, int startLine) {
-
-        ErlToken.Category mode = ErlToken.Category.UNDEFINED;
-
-        if (0 == line.length())
-            return new SplitResult(new LinkedList<>(), null);
-
-        int cur = 0;
-        int prev = -1;
-
-        Matcher m = lexerPattern.matcher(line);
-
-        LinkedList<ErlToken> tokens = new LinkedList<>();
-        ErlErrorInfo error = null;
-
-        for (;;) {
-            if (m.find(Integer.max(0, prev))) {
-                cur = m.start();
-                if ( (cur-prev>1 && -1==prev) || (cur-prev>=0 && prev>=0) ) {
-                    if (ErlToken.Category.ATOM==mode || ErlToken.Category.STRING==mode) {
-                        // Append text to previous lexem
-                        final String toAppend = line.substring(prev, cur+m.group().length());
-                        tokens.getLast().text += toAppend;
-                        tokens.getLast().type = mode;
-                    }
-                    else {
-                        int start = Integer.max(prev, 0);
-                        final String text = prev>0 ? line.substring(prev, cur) : line.substring(0, cur);
-                        if (text.length() > 0) {
-                            tokens.add(new ErlToken(mode, startLine, start + 1, text));
-                        }
-                    }
-                }
-                final String symb = m.group();
-                if (ErlToken.Category.STRING==mode && symb.equals("\"")) {
-                    mode = ErlToken.Category.UNDEFINED;
-                }
-                else if (ErlToken.Category.ATOM==mode && symb.equals("'")) {
-                    mode = ErlToken.Category.UNDEFINED;
-                }
-                else if (ErlToken.Category.UNDEFINED==mode && symb.equals("%")) {
-                    final String text = line.substring(cur);
-                    tokens.add(new ErlToken(ErlToken.Category.COMMENT, startLine, cur+1, text));
-                    break;
-                }
-                else if (ErlToken.Category.UNDEFINED==mode) {
-                    tokens.add(new ErlToken(mode, startLine, cur+1, symb));
-                    if (symb.equals("\""))
-                        mode = ErlToken.Category.STRING;
-                    else if (symb.equals("'"))
-                        mode = ErlToken.Category.ATOM;
-                }
-                prev = cur + symb.length();
+    private ErlToken parseErlangToken(OtpErlangTuple token) throws OtpErlangRangeException {
+        // Reserved words are already marked by erlide_syntax_check:scan_lines/1
+        String category = ((OtpErlangAtom)(token.elementAt(0))).atomValue();
+        OtpErlangObject location = token.elementAt(1);
+        int line = 0;
+        int col = 0;
+        if (location instanceof OtpErlangLong) {
+            col = ((OtpErlangLong) location).intValue();
+        }
+        else if (location instanceof OtpErlangTuple) {
+            OtpErlangTuple pair = (OtpErlangTuple) location;
+            line = ((OtpErlangLong) pair.elementAt(0)).intValue();
+            col = ((OtpErlangLong) pair.elementAt(1)).intValue();
+        }
+        String value = "";
+        if (token.arity() > 2 && category.length()!=1) {
+            OtpErlangObject valueObject = token.elementAt(2);
+            if (valueObject instanceof OtpErlangString) {
+                value = ((OtpErlangString) valueObject).stringValue();
             }
-            else {
-                // Nothing to search anymore - add tail and break loop
-                if (ErlToken.Category.ATOM==mode || ErlToken.Category.STRING==mode) {
-                    // Error: unpaired quote
-                    final String toAppend = line.substring(prev, line.length());
-                    tokens.getLast().text += toAppend;
-                    tokens.getLast().type = ErlToken.Category.ATOM==mode? ErlToken.Category.ERROR_ATOM : ErlToken.Category.ERROR_STRING;
-                    error = new ErlErrorInfo(startLine, ErlErrorInfo.ERROR, null, "Unpaired quote", null);
-                }
-                else {
-                    if (line.length() > prev) {
-                        int start = Integer.max(prev, 0);
-                        final String text = line.substring(start);
-                        tokens.add(new ErlToken(ErlToken.Category.UNDEFINED, startLine, start+1, text));
-                    }
-                }
-                break;
+            else if (valueObject instanceof OtpErlangAtom) {
+                value = ((OtpErlangAtom) valueObject).atomValue();
             }
+            else if (valueObject instanceof OtpErlangLong) {
+                value = ((OtpErlangLong) valueObject).bigIntegerValue().toString();
+            }
+            else if (valueObject instanceof OtpErlangDouble) {
+                value = Double.toString(((OtpErlangDouble) valueObject).doubleValue());
+            }
+        }
+        else if (category.equals("dot")) {
+            value = ".";
+        }
+        else if (category.length() <= 3){
+            value = category; // in case of operator
         }
-        return new SplitResult(tokens, error);
+        // Sigil prefix and suffix are parts of string, the same way Java lexer makes them
+        if (category.equals("sigil_prefix")) {
+            return new ErlToken(ErlToken.Category.STRING, line, col, "~" + value);
+        }
+        if (category.equals("sigil_suffix")) {
+            return value.isEmpty() ? null : new ErlToken(ErlToken.Category.STRING, line, col, value);
+        }
+        return new ErlToken(category, line, col, value);
     }
 
-    private SplitResult detectSpecialTypes(SplitResult splitResult, String lineText) {
+    SplitResult detectSpecialTypes(SplitResult splitResult, String lineText) {
         for (int i=0; i<splitResult.tokens.size(); ++i) {
             ErlToken token = splitResult.tokens.get(i);
             final String textBefore = lineText.substring(0, token.column-1).trim();
@@ -409,49 +273,118 @@ public class ErlangCompiler {
     public CompileResult compile(final String sourceFileName) {
         CompileResult result = null;
         try {
-            File file = new File(sourceFileName);
-            final String dir = file.getParent();
-            final String outDir = Paths.get(dir + "/../ebin").normalize().toAbsolutePath().toString();
-
-            OtpErlangList options = new OtpErlangList(new OtpErlangObject [] {
-                    new OtpErlangAtom("return_errors"),
-                    new OtpErlangAtom("return_warnings"),
-                    new OtpErlangAtom("debug_info"),
-                    new OtpErlangTuple(new OtpErlangObject[]{ new OtpErlangAtom("outdir"), new OtpErlangString(outDir) })
-            });
-            OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
-                    new OtpErlangString(sourceFileName), options
-            } );
-            OtpErlangTuple erlResult = (OtpErlangTuple) vm.run("compile", "file", arguments);
-            OtpErlangAtom erlStatus = (OtpErlangAtom) erlResult.elementAt(0);
-            final String status = erlStatus.atomValue();
-            OtpErlangList erlErrors = null;
-            OtpErlangList erlWarnings = null;
-
-            String targetModuleName = null;
-            String targetModuleFile = null;
-
-            if (status.equals("ok")) {
-                erlWarnings = (OtpErlangList) erlResult.elementAt(2);
-                targetModuleName = ((OtpErlangAtom) erlResult.elementAt(1)).atomValue();
-                targetModuleFile = outDir + "/" +targetModuleName +".beam";
-            }
-            else if (status.equals("error")) {
-                erlErrors = (OtpErlangList) erlResult.elementAt(1);
-                erlWarnings = (OtpErlangList) erlResult.elementAt(2);
-            }
+            result = compileAsync(sourceFileName).get();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
 
-            LinkedList<ErlErrorInfo> messages = new LinkedList<>();
+    public CompletableFuture<List<ErlErrorInfo>> checkSyntaxAsync(final String text, final String fileName) {
+        // Checks editor text without saving or building, result is null if check failed itself
+        OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangString(text), new OtpErlangString(fileName)
+        } );
+        return vm.runAsync("erlide_syntax_check", "check_for_errors_and_warnings", arguments)
+                .handleAsync((reply, error) -> {
+                    if (null != error) {
+                        error.printStackTrace();
+                        return null;
+                    }
+                    return parseSyntaxCheckReply(reply, fileName);
+                }, asyncExecutor);
+    }
 
-            if (erlErrors!=null) {
-                messages.addAll(parseCompilerErrorsOrWarnings(erlErrors, ErlErrorInfo.ERROR));
+    private List<ErlErrorInfo> parseSyntaxCheckReply(OtpErlangObject reply, final String fileName) {
+        if (!(reply instanceof OtpErlangList)) {
+            System.err.println("Error checking syntax: " + reply);
+            return null;
+        }
+        List<ErlErrorInfo> result = new ArrayList<>();
+        try {
+            for (OtpErlangObject itemObject : (OtpErlangList) reply) {
+                OtpErlangTuple item = (OtpErlangTuple) itemObject;
+                // Location is a range {{Line,Column},{Line,Column}}, first line is enough here
+                OtpErlangObject erlLocation = item.elementAt(0);
+                while (erlLocation instanceof OtpErlangTuple) {
+                    erlLocation = ((OtpErlangTuple) erlLocation).elementAt(0);
+                }
+                final int line = ((OtpErlangLong) erlLocation).intValue();
+                final String level = ((OtpErlangAtom) item.elementAt(1)).atomValue();
+                final int type = level.equals("error") ? ErlErrorInfo.ERROR : ErlErrorInfo.WARNNING;
+                result.add(new ErlErrorInfo(line, type, fileName, messageToString(item.elementAt(2)), null));
             }
-            if (erlWarnings!=null) {
-                messages.addAll(parseCompilerErrorsOrWarnings(erlWarnings, ErlErrorInfo.WARNNING));
+        } catch (OtpErlangRangeException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private static String messageToString(OtpErlangObject message) {
+        if (message instanceof OtpErlangString) {
+            return ((OtpErlangString) message).stringValue();
+        }
+        else if (message instanceof OtpErlangBinary) {
+            return binaryToString(message);
+        }
+        else if (message instanceof OtpErlangList) {
+            // Non-latin characters make string to be sent as a list of integers
+            try {
+                return new OtpErlangString((OtpErlangList) message).stringValue();
+            } catch (OtpErlangException e) {
+                return message.toString();
             }
+        }
+        return message.toString();
+    }
 
-            result = new CompileResult(targetModuleFile, messages);
+    public CompletableFuture<CompileResult> compileAsync(final String sourceFileName) {
+        // Cancelling returned future before compiler replies skips messages formatting
+        final String outDir = outputDirFor(sourceFileName);
+        OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangString(sourceFileName), compileOptions(outDir)
+        } );
+        return vm.runAsync(ErlangVM.Lane.BATCH, "erlide_builder", "compile_file", arguments)
+                .thenApplyAsync(erlResult -> parseCompileResult((OtpErlangTuple) erlResult, outDir), asyncExecutor);
+    }
+
+    public CompletableFuture<CompileResult> compileSourceAsync(final String sourceFileName, final String sourceText) {
+        // Text is compiled as if it was saved to file, module object code comes back in result
+        OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangString(sourceFileName),
+                new OtpErlangBinary(sourceText.getBytes(StandardCharsets.UTF_8)),
+                new OtpErlangList(commonCompileOptions())
+        } );
+        return vm.runAsync(ErlangVM.Lane.BATCH, "erlide_builder", "compile_source", arguments)
+                .thenApplyAsync(erlResult -> parseSourceCompileResult((OtpErlangTuple) erlResult), asyncExecutor);
+    }
 
+    public List<CompileResult> compile(final List<String> sourceFileNames) {
+        // Erlang side compiles files concurrently and replies once all of them are done
+        List<CompileResult> result = null;
+        try {
+            OtpErlangObject[] erlFiles = new OtpErlangObject[sourceFileNames.size()];
+            for (int i=0; i<sourceFileNames.size(); ++i) {
+                final String sourceFileName = sourceFileNames.get(i);
+                erlFiles[i] = new OtpErlangTuple(new OtpErlangObject[]{
+                        new OtpErlangString(sourceFileName), compileOptions(outputDirFor(sourceFileName))
+                });
+            }
+            OtpErlangObject reply = vm.run(ErlangVM.Lane.BATCH, "erlide_builder", "compile_files", new OtpErlangList(new OtpErlangObject[]{
+                    new OtpErlangList(erlFiles)
+            }));
+            if (!(reply instanceof OtpErlangList)) {
+                System.err.println("Error compiling files: " + reply);
+                return null;
+            }
+            result = new ArrayList<>(sourceFileNames.size());
+            int index = 0;
+            for (OtpErlangObject erlResult : (OtpErlangList) reply) {
+                final String outDir = outputDirFor(sourceFileNames.get(index++));
+                result.add(parseCompileResult((OtpErlangTuple) erlResult, outDir));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (OtpAuthException e) {
@@ -464,46 +397,102 @@ public class ErlangCompiler {
         return result;
     }
 
+    String compileOptionsKey() {
+        // Output directory is not a part of key, it does not affect compiled code, but OTP release does
+        return new OtpErlangList(commonCompileOptions()).toString() + " otp " + vm.getOtpRelease();
+    }
+
+    private String outputDirFor(final String sourceFileName) {
+        File file = new File(sourceFileName);
+        final String dir = file.getParent();
+        return Paths.get(dir + "/../ebin").normalize().toAbsolutePath().toString();
+    }
+
+    private OtpErlangObject[] commonCompileOptions() {
+        return new OtpErlangObject [] {
+                new OtpErlangAtom("return_errors"),
+                new OtpErlangAtom("return_warnings"),
+                new OtpErlangAtom("debug_info")
+        };
+    }
+
+    private OtpErlangList compileOptions(final String outDir) {
+        OtpErlangObject[] common = commonCompileOptions();
+        OtpErlangObject[] options = Arrays.copyOf(common, common.length + 1);
+        options[common.length] = new OtpErlangTuple(new OtpErlangObject[]{ new OtpErlangAtom("outdir"), new OtpErlangString(outDir) });
+        return new OtpErlangList(options);
+    }
+
+    private CompileResult parseCompileResult(OtpErlangTuple erlResult, final String outDir) {
+        OtpErlangAtom erlStatus = (OtpErlangAtom) erlResult.elementAt(0);
+        final String status = erlStatus.atomValue();
+        OtpErlangList erlErrors = null;
+        OtpErlangList erlWarnings = null;
+
+        String targetModuleName = null;
+        String targetModuleFile = null;
+
+        if (status.equals("ok")) {
+            erlWarnings = (OtpErlangList) erlResult.elementAt(2);
+            targetModuleName = ((OtpErlangAtom) erlResult.elementAt(1)).atomValue();
+            targetModuleFile = outDir + "/" +targetModuleName +".beam";
+        }
+        else if (status.equals("error")) {
+            erlErrors = (OtpErlangList) erlResult.elementAt(1);
+            erlWarnings = (OtpErlangList) erlResult.elementAt(2);
+        }
+
+        LinkedList<ErlErrorInfo> messages = new LinkedList<>();
+
+        if (erlErrors!=null) {
+            messages.addAll(parseCompilerErrorsOrWarnings(erlErrors, ErlErrorInfo.ERROR));
+        }
+        if (erlWarnings!=null) {
+            messages.addAll(parseCompilerErrorsOrWarnings(erlWarnings, ErlErrorInfo.WARNNING));
+        }
+
+        return new CompileResult(targetModuleFile, messages);
+    }
+
+    private CompileResult parseSourceCompileResult(OtpErlangTuple erlResult) {
+        final String status = ((OtpErlangAtom) erlResult.elementAt(0)).atomValue();
+        LinkedList<ErlErrorInfo> messages = new LinkedList<>();
+        if (status.equals("ok")) {
+            final String moduleName = ((OtpErlangAtom) erlResult.elementAt(1)).atomValue();
+            final byte[] moduleBinary = ((OtpErlangBinary) erlResult.elementAt(2)).binaryValue();
+            messages.addAll(parseCompilerErrorsOrWarnings((OtpErlangList) erlResult.elementAt(3), ErlErrorInfo.WARNNING));
+            return new CompileResult(moduleName, moduleBinary, messages);
+        }
+        messages.addAll(parseCompilerErrorsOrWarnings((OtpErlangList) erlResult.elementAt(1), ErlErrorInfo.ERROR));
+        messages.addAll(parseCompilerErrorsOrWarnings((OtpErlangList) erlResult.elementAt(2), ErlErrorInfo.WARNNING));
+        return new CompileResult(null, null, messages);
+    }
+
     private LinkedList<ErlErrorInfo> parseCompilerErrorsOrWarnings(OtpErlangList rootList, int type) {
+        // Messages are formatted by erlide_builder, so there is nothing to ask Erlang node about
         LinkedList<ErlErrorInfo> result = new LinkedList<>();
         try {
             for (OtpErlangObject obj : rootList) {
                 OtpErlangTuple erlModule = (OtpErlangTuple) obj;
-                final String errorFileName = ((OtpErlangString) erlModule.elementAt(0)).stringValue();
+                final String errorFileName = binaryToString(erlModule.elementAt(0));
                 OtpErlangList errorsList = (OtpErlangList) erlModule.elementAt(1);
                 for (OtpErlangObject errorObject : errorsList) {
                     OtpErlangTuple errorItem = (OtpErlangTuple) errorObject;
-                    OtpErlangObject location = errorItem.elementAt(0);
-                    OtpErlangAtom messageModule = (OtpErlangAtom) errorItem.elementAt(1);
-                    OtpErlangObject unformattedMessage = errorItem.elementAt(2);
-                    int lineNumber = 0;
-                    if (location instanceof OtpErlangLong) {
-                        lineNumber = ((OtpErlangLong) location).intValue();
-                    } else if (location instanceof OtpErlangTuple) {
-                        OtpErlangObject locationLine = ((OtpErlangTuple) location).elementAt(0);
-                        lineNumber = ((OtpErlangLong) locationLine).intValue();
-                    }
-                    final String messageModuleName = messageModule.atomValue();
-                    OtpErlangObject formattedUnflattenMessage = vm.run(messageModuleName, "format_error", new OtpErlangList(unformattedMessage));
-                    OtpErlangObject formattedMessage = vm.run("lists", "flatten", new OtpErlangList(new OtpErlangObject[]{formattedUnflattenMessage}));
-                    final String message = ((OtpErlangString) formattedMessage).stringValue();
+                    final int lineNumber = ((OtpErlangLong) errorItem.elementAt(0)).intValue();
+                    final String message = binaryToString(errorItem.elementAt(1));
                     result.add(new ErlErrorInfo(lineNumber, type, errorFileName, message, null));
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (OtpErlangExit otpErlangExit) {
-            otpErlangExit.printStackTrace();
-        } catch (OtpErlangDecodeException e) {
-            e.printStackTrace();
-        } catch (OtpAuthException e) {
-            e.printStackTrace();
         } catch (OtpErlangRangeException e) {
             e.printStackTrace();
         }
         return result;
     }
 
+    private static String binaryToString(OtpErlangObject object) {
+        return new String(((OtpErlangBinary) object).binaryValue(), StandardCharsets.UTF_8);
+    }
+
     public boolean isReservedWord(String text) {
         for (final String s : KEYWORDS) {
             if (s.equals(text))
@@ -538,21 +527,35 @@ public class ErlangCompiler {
     }
 
     public List<String> scanForIncludeStatements(String data) {
+        // Both -include and -include_lib, only lines looking like these are lexed
         List<String> result = new LinkedList<>();
-        String[] lines = data.split("\n");
-        for (String line : lines) {
-            line = line.trim();
-            if (line.startsWith("-include(")) {
-                int startPos = 9;
-                int endPos = line.indexOf(')', startPos);
-                if (-1 != endPos) {
-                    String name = line.substring(startPos, endPos).trim();
-                    if (name.startsWith("\"") && name.endsWith("\"")) {
-                        name = name.substring(1, name.length() - 1);
+        int lineStart = 0;
+        int lineNo = 1;
+        while (lineStart < data.length()) {
+            int lineEnd = data.indexOf('\n', lineStart);
+            if (-1 == lineEnd) {
+                lineEnd = data.length();
+            }
+            final String line = data.substring(lineStart, lineEnd);
+            if (line.trim().startsWith("-include")) {
+                List<ErlToken> tokens = new ArrayList<>();
+                for (ErlToken token : lexer.splitLineIntoLexems(line, lineNo, ErlLexerState.NORMAL).tokens) {
+                    if (ErlToken.Category.WHITE_SPACE != token.type && ErlToken.Category.COMMENT != token.type) {
+                        tokens.add(token);
                     }
-                    result.add(name);
+                }
+                boolean isInclude = tokens.size() >= 5 &&
+                        tokens.get(0).text.equals("-") &&
+                        (tokens.get(1).text.equals("include") || tokens.get(1).text.equals("include_lib")) &&
+                        tokens.get(2).text.equals("(") &&
+                        ErlToken.Category.STRING == tokens.get(3).type &&
+                        tokens.get(4).text.equals(")");
+                if (isInclude && !tokens.get(3).text.isEmpty()) {
+                    result.add(tokens.get(3).text);
                 }
             }
+            lineStart = lineEnd + 1;
+            lineNo++;
         }
         return result;
     }
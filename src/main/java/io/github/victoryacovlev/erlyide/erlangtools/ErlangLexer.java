@@ -0,0 +1,519 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Line-oriented Erlang tokenizer producing the same tokens as
+ * erl_scan:string(Line, {LineNo, 1}, [return]) seen through
+ * {@link ErlangCompiler#splitLinesIntoLexemsAsync}, but without
+ * any round trip to Erlang node.
+ *
+ * Lexer state is carried between lines to support strings, quoted atoms
+ * and triple-quoted strings spanning several lines.
+ */
+public class ErlangLexer {
+
+    private static final Set<String> RESERVED_WORDS = new HashSet<>(Arrays.asList(
+            "after", "and", "andalso",
+            "band", "begin", "bnot", "bor", "bsl", "bsr", "bxor",
+            "case", "catch", "cond",
+            "div",
+            "end",
+            "fun",
+            "if",
+            "let",
+            "not",
+            "of", "or", "orelse",
+            "receive", "rem",
+            "try",
+            "when",
+            "xor"
+    ));
+
+    // Longest operators first
+    private static final String[] OPERATORS = new String[] {
+            "=:=", "=/=", "...",
+            "<<", ">>", "<-", "<=", "=<", ">=", "==", "/=", "=>", ":=", "::", "->",
+            "||", "++", "--", "..", "?=", "??",
+            "(", ")", "[", "]", "{", "}", ",", ";", "|", ":", "#", "!",
+            "=", "<", ">", "+", "-", "*", "/", "?", "."
+    };
+
+    private static final String TRIPLE_QUOTE = "\"\"\"";
+
+    private static final int MAX_CODE_POINT = 0x10FFFF;
+
+    public SplitResult splitLineIntoLexems(final String text, int lineNo, ErlLexerState initialState) {
+        List<ErlToken> tokens = new ArrayList<>();
+        ErlErrorInfo error = null;
+        ErlLexerState state = initialState;
+        int pos = 0;
+
+        if (ErlLexerState.IN_TRIPLE_QUOTED_STRING == state) {
+            final int indent = skipWhiteSpace(text, 0);
+            if (text.startsWith(TRIPLE_QUOTE, indent)) {
+                pos = indent + TRIPLE_QUOTE.length();
+                state = ErlLexerState.NORMAL;
+                tokens.add(new ErlToken("string", lineNo, 1, ""));
+            }
+            else {
+                if (text.length() > 0) {
+                    tokens.add(new ErlToken("string", lineNo, 1, erlangListValue(text)));
+                }
+                return new SplitResult(tokens, null, state);
+            }
+        }
+        else if (ErlLexerState.IN_STRING == state || ErlLexerState.IN_QUOTED_ATOM == state) {
+            final char quote = ErlLexerState.IN_STRING == state ? '"' : '\'';
+            StringBuilder value = new StringBuilder();
+            boolean[] illegal = new boolean[1];
+            pos = scanQuoted(text, 0, quote, value, illegal);
+            if (illegal[0]) {
+                error = illegalCharacter(lineNo);
+            }
+            final String category = '"' == quote ? "string" : "atom";
+            final String tokenValue = '"' == quote ? erlangListValue(value.toString()) : value.toString();
+            if (pos > text.length()) {
+                if (text.length() > 0) {
+                    tokens.add(new ErlToken(category, lineNo, 1, tokenValue));
+                }
+                return new SplitResult(tokens, null, state);
+            }
+            tokens.add(new ErlToken(category, lineNo, 1, tokenValue));
+            state = ErlLexerState.NORMAL;
+        }
+
+        while (pos < text.length()) {
+            final char ch = text.charAt(pos);
+            final int column = pos + 1;
+            if (isWhiteSpace(ch)) {
+                // Like erl_scan, make separate tokens for runs of spaces, tabs and other white space
+                int end = pos + 1;
+                while (end < text.length() && isWhiteSpace(text.charAt(end))
+                        && (' ' != ch && '\t' != ch || ch == text.charAt(end))) {
+                    end++;
+                }
+                tokens.add(new ErlToken("white_space", lineNo, column, erlangListValue(text.substring(pos, end))));
+                pos = end;
+            }
+            else if ('%' == ch) {
+                tokens.add(new ErlToken("comment", lineNo, column, erlangListValue(text.substring(pos))));
+                pos = text.length();
+            }
+            else if (isUpperCase(ch) || '_' == ch) {
+                final int end = skipNameChars(text, pos + 1);
+                tokens.add(new ErlToken("var", lineNo, column, text.substring(pos, end)));
+                pos = end;
+            }
+            else if (isLowerCase(ch)) {
+                final int end = skipNameChars(text, pos + 1);
+                final String name = text.substring(pos, end);
+                if (RESERVED_WORDS.contains(name)) {
+                    tokens.add(new ErlToken(name, lineNo, column, operatorValue(name)));
+                }
+                else {
+                    tokens.add(new ErlToken("atom", lineNo, column, name));
+                }
+                pos = end;
+            }
+            else if (isDigit(ch)) {
+                pos = scanNumber(text, pos, lineNo, tokens);
+            }
+            else if ('$' == ch) {
+                if (pos + 1 >= text.length()) {
+                    error = new ErlErrorInfo(lineNo, ErlErrorInfo.ERROR, null, "unterminated character", null);
+                    tokens.add(new ErlToken(ErlToken.Category.UNDEFINED, lineNo, column, "$"));
+                    pos = text.length();
+                }
+                else {
+                    int[] charValue = new int[1];
+                    final int end = scanCharacter(text, pos + 1, charValue);
+                    if (charValue[0] < 0) {
+                        error = illegalCharacter(lineNo);
+                        tokens.add(new ErlToken(ErlToken.Category.UNDEFINED, lineNo, column, text.substring(pos, end)));
+                    }
+                    else {
+                        tokens.add(new ErlToken("char", lineNo, column, Long.toString(charValue[0])));
+                    }
+                    pos = end;
+                }
+            }
+            else if ('"' == ch) {
+                if (text.startsWith(TRIPLE_QUOTE, pos) && skipWhiteSpace(text, pos + TRIPLE_QUOTE.length()) == text.length()) {
+                    tokens.add(new ErlToken("string", lineNo, column, ""));
+                    return new SplitResult(tokens, error, ErlLexerState.IN_TRIPLE_QUOTED_STRING);
+                }
+                StringBuilder value = new StringBuilder();
+                boolean[] illegal = new boolean[1];
+                final int end = scanQuoted(text, pos + 1, '"', value, illegal);
+                if (illegal[0]) {
+                    error = illegalCharacter(lineNo);
+                }
+                tokens.add(new ErlToken("string", lineNo, column, erlangListValue(value.toString())));
+                if (end > text.length()) {
+                    return new SplitResult(tokens, error, ErlLexerState.IN_STRING);
+                }
+                pos = end;
+            }
+            else if ('\'' == ch) {
+                StringBuilder value = new StringBuilder();
+                boolean[] illegal = new boolean[1];
+                final int end = scanQuoted(text, pos + 1, '\'', value, illegal);
+                if (illegal[0]) {
+                    error = illegalCharacter(lineNo);
+                }
+                tokens.add(new ErlToken("atom", lineNo, column, value.toString()));
+                if (end > text.length()) {
+                    return new SplitResult(tokens, error, ErlLexerState.IN_QUOTED_ATOM);
+                }
+                pos = end;
+            }
+            else if ('~' == ch) {
+                boolean[] illegal = new boolean[1];
+                final int end = scanSigil(text, pos, lineNo, tokens, illegal);
+                if (illegal[0]) {
+                    error = illegalCharacter(lineNo);
+                }
+                if (end < 0) {
+                    return new SplitResult(tokens, error, ErlLexerState.IN_TRIPLE_QUOTED_STRING);
+                }
+                if (end > text.length()) {
+                    error = new ErlErrorInfo(lineNo, ErlErrorInfo.ERROR, null, "unterminated sigil", null);
+                    pos = text.length();
+                }
+                else {
+                    pos = end;
+                }
+            }
+            else if ('.' == ch && (pos + 1 == text.length() || isWhiteSpace(text.charAt(pos + 1)) || '%' == text.charAt(pos + 1))) {
+                tokens.add(new ErlToken("dot", lineNo, column, "."));
+                // erl_scan includes one white space character following the dot into dot token
+                pos += pos + 1 < text.length() && '%' != text.charAt(pos + 1) ? 2 : 1;
+            }
+            else {
+                String operator = null;
+                for (final String candidate : OPERATORS) {
+                    if (text.startsWith(candidate, pos)) {
+                        operator = candidate;
+                        break;
+                    }
+                }
+                if (null != operator) {
+                    tokens.add(new ErlToken(operator, lineNo, column, operatorValue(operator)));
+                    pos += operator.length();
+                }
+                else {
+                    error = illegalCharacter(lineNo);
+                    tokens.add(new ErlToken(ErlToken.Category.UNDEFINED, lineNo, column, String.valueOf(ch)));
+                    pos++;
+                }
+            }
+        }
+        return new SplitResult(tokens, error, ErlLexerState.NORMAL);
+    }
+
+    private int scanNumber(final String text, final int start, int lineNo, List<ErlToken> tokens) {
+        int pos = skipDigits(text, start, 10);
+        final int column = start + 1;
+        if (pos < text.length() && '#' == text.charAt(pos)) {
+            final BigInteger base = parseInteger(text.substring(start, pos), 10);
+            if (base.compareTo(BigInteger.valueOf(2)) >= 0 && base.compareTo(BigInteger.valueOf(36)) <= 0) {
+                final int digitsEnd = skipDigits(text, pos + 1, base.intValue());
+                if (digitsEnd > pos + 1) {
+                    // Erlang integers have no size limit, so value is never narrowed to long
+                    final BigInteger value = parseInteger(text.substring(pos + 1, digitsEnd), base.intValue());
+                    tokens.add(new ErlToken("integer", lineNo, column, value.toString()));
+                    return digitsEnd;
+                }
+            }
+        }
+        else if (pos + 1 < text.length() && '.' == text.charAt(pos) && isDigit(text.charAt(pos + 1))) {
+            int end = skipDigits(text, pos + 1, 10);
+            if (end < text.length() && ('e' == text.charAt(end) || 'E' == text.charAt(end))) {
+                int exponentStart = end + 1;
+                if (exponentStart < text.length() && ('+' == text.charAt(exponentStart) || '-' == text.charAt(exponentStart))) {
+                    exponentStart++;
+                }
+                if (exponentStart < text.length() && isDigit(text.charAt(exponentStart))) {
+                    end = skipDigits(text, exponentStart, 10);
+                }
+            }
+            final double value = Double.parseDouble(text.substring(start, end).replace("_", ""));
+            tokens.add(new ErlToken("float", lineNo, column, Double.toString(value)));
+            return end;
+        }
+        tokens.add(new ErlToken("integer", lineNo, column, parseInteger(text.substring(start, pos), 10).toString()));
+        return pos;
+    }
+
+    private int scanSigil(final String text, final int start, int lineNo, List<ErlToken> tokens, boolean[] illegal) {
+        int pos = start + 1;
+        String name = "";
+        if (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+            name = String.valueOf(text.charAt(pos));
+            pos++;
+        }
+        // Sigil prefix and suffix are highlighted as parts of string
+        tokens.add(new ErlToken(ErlToken.Category.STRING, lineNo, start + 1, "~" + name));
+        if (pos >= text.length()) {
+            return text.length() + 1;
+        }
+        final boolean verbatim = name.equals("S") || name.equals("B");
+        final char opening = text.charAt(pos);
+        if (text.startsWith(TRIPLE_QUOTE, pos) && skipWhiteSpace(text, pos + TRIPLE_QUOTE.length()) == text.length()) {
+            tokens.add(new ErlToken("string", lineNo, pos + 1, ""));
+            return -1;
+        }
+        final char closing;
+        switch (opening) {
+            case '(': closing = ')'; break;
+            case '[': closing = ']'; break;
+            case '{': closing = '}'; break;
+            case '<': closing = '>'; break;
+            case '/': case '|': case '\'': case '"': case '`': case '#':
+                closing = opening;
+                break;
+            default:
+                return text.length() + 1;
+        }
+        final int stringColumn = pos + 1;
+        StringBuilder value = new StringBuilder();
+        int end;
+        if (verbatim) {
+            end = text.indexOf(closing, pos + 1);
+            end = -1 == end ? text.length() + 1 : end + 1;
+            if (end <= text.length()) {
+                value.append(text, pos + 1, end - 1);
+            }
+        }
+        else {
+            end = scanQuoted(text, pos + 1, closing, value, illegal);
+        }
+        tokens.add(new ErlToken("string", lineNo, stringColumn, erlangListValue(value.toString())));
+        if (end > text.length()) {
+            return end;
+        }
+        final int suffixEnd = skipNameChars(text, end);
+        if (suffixEnd > end) {
+            tokens.add(new ErlToken(ErlToken.Category.STRING, lineNo, end + 1, text.substring(end, suffixEnd)));
+        }
+        return suffixEnd;
+    }
+
+    /**
+     * Scans quoted text up to closing quote and appends unescaped characters to value.
+     * Escapes out of Unicode range are skipped and reported by setting illegal[0].
+     * @return position after closing quote or text.length()+1 in case of quote not closed at this line
+     */
+    private int scanQuoted(final String text, final int start, final char quote, StringBuilder value, boolean[] illegal) {
+        int pos = start;
+        while (pos < text.length()) {
+            final char ch = text.charAt(pos);
+            if (quote == ch) {
+                return pos + 1;
+            }
+            else if ('\\' == ch) {
+                if (pos + 1 >= text.length()) {
+                    // Escaped line break
+                    value.append('\n');
+                    return text.length() + 1;
+                }
+                int[] charValue = new int[1];
+                pos = scanEscape(text, pos + 1, charValue);
+                if (charValue[0] < 0) {
+                    illegal[0] = true;
+                }
+                else {
+                    value.appendCodePoint(charValue[0]);
+                }
+            }
+            else {
+                value.append(ch);
+                pos++;
+            }
+        }
+        return text.length() + 1;
+    }
+
+    private int scanCharacter(final String text, final int start, int[] charValue) {
+        final char ch = text.charAt(start);
+        if ('\\' == ch && start + 1 < text.length()) {
+            return scanEscape(text, start + 1, charValue);
+        }
+        else {
+            charValue[0] = text.codePointAt(start);
+            return start + Character.charCount(charValue[0]);
+        }
+    }
+
+    /**
+     * Decodes escape sequence starting right after backslash,
+     * charValue[0] is set to -1 if it is not a valid code point.
+     * @return position after escape sequence
+     */
+    private int scanEscape(final String text, final int start, int[] charValue) {
+        final char ch = text.charAt(start);
+        switch (ch) {
+            case 'b': charValue[0] = '\b'; return start + 1;
+            case 'd': charValue[0] = 0x7F; return start + 1;
+            case 'e': charValue[0] = 0x1B; return start + 1;
+            case 'f': charValue[0] = '\f'; return start + 1;
+            case 'n': charValue[0] = '\n'; return start + 1;
+            case 'r': charValue[0] = '\r'; return start + 1;
+            case 's': charValue[0] = ' '; return start + 1;
+            case 't': charValue[0] = '\t'; return start + 1;
+            case 'v': charValue[0] = 0x0B; return start + 1;
+            default: break;
+        }
+        if ('0' <= ch && ch <= '7') {
+            int end = start;
+            while (end < text.length() && end < start + 3 && '0' <= text.charAt(end) && text.charAt(end) <= '7') {
+                end++;
+            }
+            charValue[0] = Integer.parseInt(text.substring(start, end), 8);
+            return end;
+        }
+        if ('x' == ch) {
+            if (start + 1 < text.length() && '{' == text.charAt(start + 1)) {
+                final int closing = text.indexOf('}', start + 2);
+                if (closing > start + 2 && skipDigits(text, start + 2, 16) == closing) {
+                    charValue[0] = codePointOrInvalid(parseInteger(text.substring(start + 2, closing), 16));
+                    return closing + 1;
+                }
+            }
+            else if (start + 2 < text.length() && skipDigits(text, start + 1, 16) >= start + 3) {
+                charValue[0] = Integer.parseInt(text.substring(start + 1, start + 3), 16);
+                return start + 3;
+            }
+        }
+        if ('^' == ch && start + 1 < text.length()) {
+            charValue[0] = text.charAt(start + 1) & 0x1F;
+            return start + 2;
+        }
+        charValue[0] = text.codePointAt(start);
+        return start + Character.charCount(charValue[0]);
+    }
+
+    private static int codePointOrInvalid(final BigInteger value) {
+        // Same range as erl_scan accepts: no surrogates and nothing above Unicode maximum
+        if (value.bitLength() > 31) {
+            return -1;
+        }
+        final int codePoint = value.intValue();
+        if (codePoint > MAX_CODE_POINT || (0xD800 <= codePoint && codePoint <= 0xDFFF)) {
+            return -1;
+        }
+        return codePoint;
+    }
+
+    private static ErlErrorInfo illegalCharacter(int lineNo) {
+        return new ErlErrorInfo(lineNo, ErlErrorInfo.ERROR, null, "illegal character", null);
+    }
+
+    private static BigInteger parseInteger(final String digits, int base) {
+        return new BigInteger(digits.replace("_", ""), base);
+    }
+
+    /**
+     * Skips digits valid for base, including '_' separators between them.
+     */
+    private static int skipDigits(final String text, final int start, int base) {
+        int pos = start;
+        while (pos < text.length()) {
+            final char ch = text.charAt(pos);
+            if (Character.digit(ch, base) >= 0 && ch < 0x80) {
+                pos++;
+            }
+            else if ('_' == ch && pos > start && pos + 1 < text.length()
+                    && Character.digit(text.charAt(pos + 1), base) >= 0 && text.charAt(pos + 1) < 0x80) {
+                pos++;
+            }
+            else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private static int skipNameChars(final String text, final int start) {
+        int pos = start;
+        while (pos < text.length()) {
+            final char ch = text.charAt(pos);
+            if (isLowerCase(ch) || isUpperCase(ch) || isDigit(ch) || '_' == ch || '@' == ch) {
+                pos++;
+            }
+            else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private static int skipWhiteSpace(final String text, final int start) {
+        int pos = start;
+        while (pos < text.length() && isWhiteSpace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhiteSpace(char ch) {
+        return ch <= ' ' || (0x80 <= ch && ch <= 0xA0);
+    }
+
+    private static boolean isDigit(char ch) {
+        return '0' <= ch && ch <= '9';
+    }
+
+    // Latin-1 letters classification as in erl_scan
+    private static boolean isUpperCase(char ch) {
+        return ('A' <= ch && ch <= 'Z') || (0xC0 <= ch && ch <= 0xDE && 0xD7 != ch);
+    }
+
+    private static boolean isLowerCase(char ch) {
+        return ('a' <= ch && ch <= 'z') || (0xDF <= ch && ch <= 0xFF && 0xF7 != ch);
+    }
+
+    /**
+     * Value of token without own value as it comes from Erlang API:
+     * category name itself for short operators and empty string otherwise.
+     */
+    private static String operatorValue(final String category) {
+        return category.length() <= 3 ? category : "";
+    }
+
+    /**
+     * Erlang strings come from jinterface as OtpErlangString only in case
+     * of non-empty latin-1 character lists, otherwise value is empty.
+     */
+    private static String erlangListValue(final String value) {
+        for (int i=0; i<value.length(); ++i) {
+            if (value.charAt(i) > 0xFF) {
+                return "";
+            }
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import com.ericsson.otp.erlang.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ErlangRpcChannel {
+    private final OtpSelf client;
+    private final OtpConnection connection;
+    private final Map<OtpErlangRef, CompletableFuture<OtpErlangObject>> pendingCalls = new ConcurrentHashMap<>();
+    private volatile Exception receiverFailure = null;
+
+    ErlangRpcChannel(final String clientName, final String cookie, OtpPeer server, long connectTimeout)
+            throws IOException, OtpAuthException, InterruptedException {
+        client = new OtpSelf(clientName, cookie);
+        connection = connect(server, connectTimeout);
+        Thread receiver = new Thread(this::receiveReplies, "Erlang RPC receiver " + clientName);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private OtpConnection connect(OtpPeer server, long timeout) throws IOException, OtpAuthException, InterruptedException {
+        // Node accepts connections as soon as it is registered in epmd,
+        // so retry with growing delay instead of guessing its boot time
+        final long deadline = System.currentTimeMillis() + timeout;
+        long delay = 10;
+        while (true) {
+            try {
+                return client.connect(server);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() + delay > deadline) {
+                    throw e;
+                }
+                Thread.sleep(delay);
+                delay = Long.min(delay * 2, 500);
+            }
+        }
+    }
+
+    int getPendingCallsCount() {
+        return pendingCalls.size();
+    }
+
+    void close() {
+        connection.close();
+    }
+
+    CompletableFuture<OtpErlangObject> call(final String module, final String function, OtpErlangList arguments) {
+        // Same as rpc:call/4, but reply is tagged with a reference, so calls
+        // from different threads might be in flight at the same time
+        final OtpErlangRef ref = client.createRef();
+        CompletableFuture<OtpErlangObject> future = new CompletableFuture<>();
+        pendingCalls.put(ref, future);
+        OtpErlangTuple request = new OtpErlangTuple(new OtpErlangObject[]{
+                new OtpErlangAtom("$gen_call"),
+                new OtpErlangTuple(new OtpErlangObject[]{ client.pid(), ref }),
+                new OtpErlangTuple(new OtpErlangObject[]{
+                        new OtpErlangAtom("call"),
+                        new OtpErlangAtom(module),
+                        new OtpErlangAtom(function),
+                        arguments,
+                        new OtpErlangAtom("user")
+                })
+        });
+        try {
+            synchronized (connection) {
+                connection.send("rex", request);
+            }
+        } catch (IOException e) {
+            pendingCalls.remove(ref);
+            future.completeExceptionally(e);
+        }
+        if (null != receiverFailure && null != pendingCalls.remove(ref)) {
+            future.completeExceptionally(receiverFailure);
+        }
+        return future;
+    }
+
+    private void receiveReplies() {
+        try {
+            while (true) {
+                OtpErlangObject message = connection.receive();
+                if (message instanceof OtpErlangTuple && 2 == ((OtpErlangTuple) message).arity()) {
+                    OtpErlangTuple reply = (OtpErlangTuple) message;
+                    CompletableFuture<OtpErlangObject> future = pendingCalls.remove(reply.elementAt(0));
+                    if (null != future) {
+                        future.complete(reply.elementAt(1));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            receiverFailure = e;
+        } catch (OtpErlangExit otpErlangExit) {
+            receiverFailure = otpErlangExit;
+        } catch (OtpAuthException e) {
+            receiverFailure = e;
+        }
+        for (OtpErlangRef ref : new ArrayList<>(pendingCalls.keySet())) {
+            CompletableFuture<OtpErlangObject> future = pendingCalls.remove(ref);
+            if (null != future) {
+                future.completeExceptionally(receiverFailure);
+            }
+        }
+    }
+}
@@ -22,7 +22,17 @@ import io.github.victoryacovlev.erlyide.fxui.terminal.Interpreter;
 import java.io.*;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Array;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -39,26 +49,42 @@ public class ErlangVM {
 
     private final String serverName = "erlang" + getMyPid();
     private final String cookie = "qwerty";
-    private OtpSelf client;
     private OtpPeer server;
-    private OtpConnection connection;
+
+    public enum Lane {
+        INTERACTIVE, BATCH
+    }
+
+    // Set -Derlyide.interactiveConnections=N and -Derlyide.batchConnections=N to tune
+    private static final int INTERACTIVE_CONNECTIONS = Integer.max(1, Integer.getInteger("erlyide.interactiveConnections", 1));
+    private static final int BATCH_CONNECTIONS = Integer.max(1, Integer.getInteger("erlyide.batchConnections", 2));
+
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    private static final String[] HELPER_MODULES = new String[] {
+            "erlide_syntax_check",
+            "erlide_builder"
+    };
+
+    private final Map<Lane, List<ErlangRpcChannel>> channels = new EnumMap<>(Lane.class);
 
     public Interpreter getInterpreter() {
         return interpreter;
     }
 
     private Interpreter interpreter;
+    private String otpRelease;
 
     private static ErlangVM instance;
 
-    public static ErlangVM getInstance() throws IOException, OtpAuthException, InterruptedException {
+    public static synchronized ErlangVM getInstance() throws IOException, OtpAuthException, InterruptedException {
         if (null == instance) {
             instance = new ErlangVM(null);
         }
         return instance;
     }
 
-    public static ErlangVM restart(final String workspaceDir) throws InterruptedException, IOException, OtpAuthException {
+    public static synchronized ErlangVM restart(final String workspaceDir) throws InterruptedException, IOException, OtpAuthException {
         if (null != instance) {
             instance.shutdown();
         }
@@ -67,6 +93,11 @@ public class ErlangVM {
     }
 
     public void shutdown() {
+        for (List<ErlangRpcChannel> laneChannels : channels.values()) {
+            for (ErlangRpcChannel channel : laneChannels) {
+                channel.close();
+            }
+        }
         interpreter.terminate();
     }
 
@@ -80,7 +111,6 @@ public class ErlangVM {
     }
 
     private ErlangVM(String workspaceDir) throws IOException, InterruptedException, OtpAuthException {
-        unpackHelpersSources();
         unpackHelperPackages();
         if (null == workspaceDir) {
             workspaceDir = System.getProperty("user.dir");
@@ -98,10 +128,9 @@ public class ErlangVM {
         }
         interpreter = new Interpreter(workspaceDir, allArgs);
         interpreter.waitForStarted();
-        Thread.sleep(1000);
-        client = new OtpSelf(clientName+"@localhost", cookie);
         server = new OtpPeer(serverName+"@localhost");
-        connection = client.connect(server);
+        openChannels(Lane.INTERACTIVE, INTERACTIVE_CONNECTIONS);
+        openChannels(Lane.BATCH, BATCH_CONNECTIONS);
         compileAndLoadHelpers();
         System.gc();
     }
@@ -110,29 +139,31 @@ public class ErlangVM {
 
 
     private void compileAndLoadHelpers() {
-        final String modules[] = new String[] {
-                "erlide_syntax_check"
-        };
-        final String helpersSrcPath = getHelpersRootPath() + "/src";
-        final String helpersBinPath = getHelpersRootPath() + "/ebin";
-        new File(helpersBinPath).mkdirs();
-        for (final String moduleName : modules) {
-            final String moduleInParam = helpersSrcPath + "/" + moduleName;
-            OtpErlangList options = new OtpErlangList(new OtpErlangObject [] {
-                    new OtpErlangAtom("return_errors"),
-                    new OtpErlangAtom("return_warnings"),
-                    new OtpErlangAtom("debug_info"),
-                    new OtpErlangTuple(new OtpErlangObject[]{ new OtpErlangAtom("outdir"), new OtpErlangString(helpersBinPath) })
-            });
-            OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
-                    new OtpErlangString(moduleInParam), options
-            });
+        final String helpersCachePath = getHelpersRootPath() + "/cache";
+        new File(helpersCachePath).mkdirs();
+        final String otpRelease = getOtpRelease();
+        for (final String moduleName : HELPER_MODULES) {
             try {
-                OtpErlangTuple erlCompileResult = (OtpErlangTuple) run("compile", "file", arguments);
-                final String compileStatus = ((OtpErlangAtom)erlCompileResult.elementAt(0)).atomValue();
-                if (compileStatus.equals("ok")) {
-                    OtpErlangTuple erlLoadResult = (OtpErlangTuple) run("code", "load_abs", new OtpErlangList(new OtpErlangObject[]{
-                            new OtpErlangString(helpersBinPath + "/" + moduleName)
+                final byte[] moduleSource = readHelperSource(moduleName);
+                // Compiled module is reused while both source and OTP release stay the same
+                final String cacheKey = contentHash(moduleSource, otpRelease);
+                final File beamFile = new File(helpersCachePath + "/" + moduleName + "-" + cacheKey + ".beam");
+                byte[] beam = null;
+                if (beamFile.exists()) {
+                    beam = Files.readAllBytes(beamFile.toPath());
+                }
+                else {
+                    beam = compileHelper(moduleName, moduleSource);
+                    if (null != beam) {
+                        removeCachedHelper(helpersCachePath, moduleName);
+                        Files.write(beamFile.toPath(), beam);
+                    }
+                }
+                if (null != beam) {
+                    OtpErlangTuple erlLoadResult = (OtpErlangTuple) run("code", "load_binary", new OtpErlangList(new OtpErlangObject[]{
+                            new OtpErlangAtom(moduleName),
+                            new OtpErlangString(beamFile.getAbsolutePath()),
+                            new OtpErlangBinary(beam)
                     }));
                     final String loadStatus = ((OtpErlangAtom) erlLoadResult.elementAt(0)).atomValue();
                     if (loadStatus.equals("module")) {
@@ -175,14 +206,146 @@ public class ErlangVM {
                 e.printStackTrace();
             } catch (OtpErlangDecodeException e) {
                 e.printStackTrace();
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public synchronized String getOtpRelease() {
+        if (null == otpRelease) {
+            otpRelease = queryOtpRelease();
+        }
+        return otpRelease;
+    }
+
+    private String queryOtpRelease() {
+        String result = "unknown";
+        try {
+            OtpErlangObject erlRelease = run("erlang", "system_info", new OtpErlangList(new OtpErlangAtom("otp_release")));
+            if (erlRelease instanceof OtpErlangString) {
+                result = ((OtpErlangString) erlRelease).stringValue();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OtpErlangExit otpErlangExit) {
+            otpErlangExit.printStackTrace();
+        } catch (OtpAuthException e) {
+            e.printStackTrace();
+        } catch (OtpErlangDecodeException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private byte[] readHelperSource(final String moduleName) throws IOException {
+        InputStream moduleInputStream =
+                getClass().getResourceAsStream("/erlang_helper_modules/src/"+moduleName+".erl");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = moduleInputStream.read(chunk)) > 0) {
+            buffer.write(chunk, 0, bytesRead);
+        }
+        moduleInputStream.close();
+        return buffer.toByteArray();
+    }
+
+    private static String contentHash(final byte[] source, final String otpRelease) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(source);
+        digest.update(otpRelease.getBytes(StandardCharsets.UTF_8));
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private byte[] compileHelper(final String moduleName, final byte[] moduleSource) throws IOException, OtpErlangExit, OtpAuthException, OtpErlangDecodeException {
+        final String helpersSrcPath = getHelpersRootPath() + "/src";
+        new File(helpersSrcPath).mkdirs();
+        final File sourceFile = new File(helpersSrcPath + "/" + moduleName + ".erl");
+        Files.write(sourceFile.toPath(), moduleSource);
+        OtpErlangList options = new OtpErlangList(new OtpErlangObject [] {
+                new OtpErlangAtom("binary"),
+                new OtpErlangAtom("return_errors"),
+                new OtpErlangAtom("return_warnings"),
+                new OtpErlangAtom("debug_info")
+        });
+        OtpErlangList arguments = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangString(sourceFile.getAbsolutePath()), options
+        });
+        OtpErlangTuple erlCompileResult = (OtpErlangTuple) run("compile", "file", arguments);
+        final String compileStatus = ((OtpErlangAtom)erlCompileResult.elementAt(0)).atomValue();
+        if (compileStatus.equals("ok")) {
+            return ((OtpErlangBinary) erlCompileResult.elementAt(2)).binaryValue();
+        }
+        return null;
+    }
+
+    private void removeCachedHelper(final String helpersCachePath, final String moduleName) {
+        File[] entries = new File(helpersCachePath).listFiles();
+        if (null != entries) {
+            for (File entry : entries) {
+                if (entry.getName().startsWith(moduleName + "-") && entry.getName().endsWith(".beam")) {
+                    entry.delete();
+                }
+            }
+        }
+    }
+
+    private void openChannels(Lane lane, int count) throws IOException, OtpAuthException, InterruptedException {
+        // Each connection needs its own node name, Erlang does not accept duplicate ones
+        List<ErlangRpcChannel> laneChannels = new ArrayList<>(count);
+        for (int i=0; i<count; ++i) {
+            final String name = clientName + "_" + lane.toString().toLowerCase() + i + "@localhost";
+            laneChannels.add(new ErlangRpcChannel(name, cookie, server, CONNECT_TIMEOUT));
+        }
+        channels.put(lane, laneChannels);
+    }
+
+    private ErlangRpcChannel selectChannel(Lane lane) {
+        ErlangRpcChannel result = null;
+        for (ErlangRpcChannel channel : channels.get(lane)) {
+            if (null == result || channel.getPendingCallsCount() < result.getPendingCallsCount()) {
+                result = channel;
             }
         }
+        return result;
     }
 
     public OtpErlangObject run(final String module, final String function, OtpErlangList arguments) throws IOException, OtpErlangExit, OtpAuthException, OtpErlangDecodeException {
-        connection.sendRPC(module, function, arguments);
-        OtpErlangTuple msg = (OtpErlangTuple) connection.receiveMsg().getMsg();
-        return msg.elementAt(1);
+        return run(Lane.INTERACTIVE, module, function, arguments);
+    }
+
+    public OtpErlangObject run(Lane lane, final String module, final String function, OtpErlangList arguments) throws IOException, OtpErlangExit, OtpAuthException, OtpErlangDecodeException {
+        try {
+            return runAsync(lane, module, function, arguments).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + module + ":" + function, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OtpErlangExit) {
+                throw (OtpErlangExit) cause;
+            }
+            else if (cause instanceof OtpAuthException) {
+                throw (OtpAuthException) cause;
+            }
+            else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public CompletableFuture<OtpErlangObject> runAsync(final String module, final String function, OtpErlangList arguments) {
+        return runAsync(Lane.INTERACTIVE, module, function, arguments);
+    }
+
+    public CompletableFuture<OtpErlangObject> runAsync(Lane lane, final String module, final String function, OtpErlangList arguments) {
+        return selectChannel(lane).call(module, function, arguments);
     }
 
     public List<String> getHelperProgramPaths() {
@@ -209,86 +372,121 @@ public class ErlangVM {
                 "rebar3"
         };
         for (final String packageFileName : packages) {
-            InputStream packageInputStream = getClass().getResourceAsStream("/erlang_helper_modules/pkgs/"+packageFileName);
+            final String packageResource = "/erlang_helper_modules/pkgs/"+packageFileName;
+            final File manifestFile = new File(helpersAppsPath + "/." + packageFileName + ".manifest");
             try {
-                // Find start position of ZIP stream in escript
-                packageInputStream.mark(1024);
-                byte[] header = new byte[512];
-                int headerSize = packageInputStream.read(header, 0, 512);
-                long startPos = 0;
-                for (int i=3; i<headerSize; ++i) {
-                    byte a = header[i-3];
-                    byte b = header[i-2];
-                    byte c = header[i-1];
-                    byte d = header[i-0];
-                    boolean magic1 = 0x50==a && 0x4B==b && 0x03==c && 0x04==d;
-                    boolean magic2 = 0x50==a && 0x4B==b && 0x05==c && 0x06==d;
-                    boolean magic3 = 0x50==a && 0x4B==b && 0x07==c && 0x08==d;
-                    if (magic1 || magic2 || magic3) {
-                        startPos = i-3;
-                        break;
-                    }
+                // Package identity is known without reading it, so unchanged package costs one file read
+                URLConnection packageConnection = getClass().getResource(packageResource).openConnection();
+                final String packageIdentity = packageConnection.getContentLengthLong() + " " + packageConnection.getLastModified();
+                Map<String, Long> manifest = new HashMap<>();
+                if (packageIdentity.equals(readPackageManifest(manifestFile, manifest))
+                        && extractedFilesExist(helpersAppsTargetDir, manifest.keySet())) {
+                    continue;
                 }
-                packageInputStream.reset();
-                packageInputStream.skip(startPos);
-                ZipInputStream zipInputStream = new ZipInputStream(packageInputStream);
-                ZipEntry zipEntry;
-                while (null!=(zipEntry = zipInputStream.getNextEntry())) {
-                    long crc = zipEntry.getCrc();
-                    String outFilePath = helpersAppsTargetDir.getAbsolutePath()+"/"+zipEntry.getName();
-                    File outFile = new File(outFilePath);
-                    File fileDir = outFile.getParentFile();
-                    fileDir.mkdirs();
-                    final int entryUnpackedSize = (int) zipEntry.getSize();
-                    if (outFile.exists()) {
-                        long fsize = outFile.length();
-                        if (fsize == entryUnpackedSize) {
-                            continue;
+                Map<String, Long> newManifest = new TreeMap<>();
+                try (InputStream packageInputStream = new BufferedInputStream(getClass().getResourceAsStream(packageResource));
+                     ZipInputStream zipInputStream = new ZipInputStream(packageInputStream)) {
+                    // Find start position of ZIP stream in escript
+                    packageInputStream.mark(1024);
+                    byte[] header = new byte[512];
+                    int headerSize = packageInputStream.read(header, 0, 512);
+                    long startPos = 0;
+                    for (int i=3; i<headerSize; ++i) {
+                        byte a = header[i-3];
+                        byte b = header[i-2];
+                        byte c = header[i-1];
+                        byte d = header[i-0];
+                        boolean magic1 = 0x50==a && 0x4B==b && 0x03==c && 0x04==d;
+                        boolean magic2 = 0x50==a && 0x4B==b && 0x05==c && 0x06==d;
+                        boolean magic3 = 0x50==a && 0x4B==b && 0x07==c && 0x08==d;
+                        if (magic1 || magic2 || magic3) {
+                            startPos = i-3;
+                            break;
                         }
                     }
-                    FileOutputStream writer = new FileOutputStream(outFile);
-                    byte[] buffer = new byte[1024];
-                    int bytesReadTotal = 0;
-                    while (bytesReadTotal < entryUnpackedSize) {
-                        int bytesRead = zipInputStream.read(buffer, 0, 1024);
-                        bytesReadTotal += bytesRead;
-                        writer.write(buffer, 0, bytesRead);
+                    packageInputStream.reset();
+                    packageInputStream.skip(startPos);
+                    ZipEntry zipEntry;
+                    byte[] buffer = new byte[256 * 1024];
+                    while (null!=(zipEntry = zipInputStream.getNextEntry())) {
+                        if (zipEntry.isDirectory()) {
+                            continue;
+                        }
+                        String outFilePath = helpersAppsTargetDir.getAbsolutePath()+"/"+zipEntry.getName();
+                        File outFile = new File(outFilePath);
+                        final long crc = zipEntry.getCrc();
+                        final Long extractedCrc = manifest.get(zipEntry.getName());
+                        if (-1 != crc && null != extractedCrc && crc == extractedCrc && outFile.exists()) {
+                            newManifest.put(zipEntry.getName(), crc);
+                            continue;
+                        }
+                        outFile.getParentFile().mkdirs();
+                        try (FileChannel outChannel = FileChannel.open(outFile.toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            int bytesRead;
+                            while ((bytesRead = zipInputStream.read(buffer)) > 0) {
+                                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, bytesRead);
+                                while (chunk.hasRemaining()) {
+                                    outChannel.write(chunk);
+                                }
+                            }
+                        }
+                        // CRC might be not known before entry data is read
+                        newManifest.put(zipEntry.getName(), zipEntry.getCrc());
                     }
-                    writer.close();
                 }
+                writePackageManifest(manifestFile, packageIdentity, newManifest);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    private void unpackHelpersSources() {
-        final String helpersSrcPath = getHelpersRootPath() + "/src";
-        File helpersTargetDir = new File(helpersSrcPath);
-        final String modules[] = new String[] {
-            "erlide_syntax_check"
-        };
-        helpersTargetDir.mkdirs();
-        for (final String moduleName : modules) {
-            InputStream moduleInputStream =
-                    getClass().getResourceAsStream("/erlang_helper_modules/src/"+moduleName+".erl");
-            File moduleOutputFile = new File(helpersTargetDir.getAbsolutePath()+"/"+moduleName+".erl");
-            try {
-                FileOutputStream moduleOutputStream = new FileOutputStream(moduleOutputFile);
-                Scanner s = new Scanner(moduleInputStream);
-                s.useDelimiter("\\A");
-                String moduleSource = s.next();
-                OutputStreamWriter writer = new OutputStreamWriter(moduleOutputStream, "UTF-8");
-                BufferedWriter bufferedWriter = new BufferedWriter(writer);
-                bufferedWriter.write(moduleSource);
-                bufferedWriter.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+    private static boolean extractedFilesExist(final File targetDir, final Collection<String> names) {
+        // Manifest alone does not prove the tree is intact, files might be deleted by hand
+        for (final String name : names) {
+            if (!new File(targetDir, name).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readPackageManifest(final File manifestFile, Map<String, Long> entries) {
+        // Manifest is a package identity line followed by "crc32 name" lines
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        String identity = null;
+        try {
+            List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+            for (int i=0; i<lines.size(); ++i) {
+                final String line = lines.get(i);
+                if (0 == i) {
+                    identity = line;
+                }
+                else {
+                    final int separatorPos = line.indexOf(' ');
+                    if (separatorPos > 0) {
+                        entries.put(line.substring(separatorPos + 1), Long.parseLong(line.substring(0, separatorPos), 16));
+                    }
+                }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
         }
+        return identity;
+    }
 
+    private void writePackageManifest(final File manifestFile, final String identity, Map<String, Long> entries) throws IOException {
+        List<String> lines = new ArrayList<>(entries.size() + 1);
+        lines.add(identity);
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            lines.add(Long.toHexString(entry.getValue()) + " " + entry.getKey());
+        }
+        Files.write(manifestFile.toPath(), lines, StandardCharsets.UTF_8);
     }
 
 
@@ -20,23 +20,32 @@ import com.ericsson.otp.erlang.OtpAuthException;
 import io.github.victoryacovlev.erlyide.project.ErlangIncludeFile;
 import io.github.victoryacovlev.erlyide.project.ErlangProject;
 import io.github.victoryacovlev.erlyide.project.ErlangSourceFile;
+import io.github.victoryacovlev.erlyide.project.ProjectFile;
 import javafx.event.Event;
 import javafx.event.EventTarget;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ProjectBuilder {
 
     private final ErlangCompiler compiler;
-    private final ExecutorService threadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     private final ExecutorService buildService = Executors.newSingleThreadExecutor();
+    private final Map<String, BuildDatabase> buildDatabases = new ConcurrentHashMap<>();
+    private final BeamCache beamCache = BeamCache.getInstance();
 
     private static ProjectBuilder singleton = null;
     private ProjectLoader loader;
@@ -65,29 +74,62 @@ public class ProjectBuilder {
 
 
     public CompileResult buildProject(ErlangProject project) {
-        List<String> fileNames = prepareListOfChangedFiles(project);
+        return buildProject(project, Collections.emptySet());
+    }
+
+    private CompileResult buildProject(ErlangProject project, Set<String> excludedFileNames) {
+        BuildDatabase database = buildDatabaseOf(project);
+        Map<String, String> changedFiles = prepareListOfChangedFiles(project, database);
+        changedFiles.keySet().removeAll(excludedFileNames);
+        List<String> fileNames = new ArrayList<>(changedFiles.keySet());
         List<ErlErrorInfo> errorMessages = new LinkedList<>();
-        List<String> compiledBeamFiles = Collections.synchronizedList(new LinkedList<>());
-        List<Callable<Object>> tasks = new LinkedList<>();
-        // TODO do compilation in parallel
-        for ( final String sourceFileName : fileNames ) {
-//            tasks.add(() -> {
-                CompileResult fileCompileResult = compiler.compile(sourceFileName);
-                List<String> fileOutputs = fileCompileResult.getOutputFileNames();
-//                synchronized (compiledBeamFiles) {
-                    compiledBeamFiles.addAll(fileOutputs);
-//                }
-//                synchronized (errorMessages) {
-                    errorMessages.addAll(fileCompileResult.getErrorsAndWarnings());
-//                }
-//                return null;
-//            });
+        List<String> compiledBeamFiles = new LinkedList<>();
+        for (final String sourceFileName : new ArrayList<>(fileNames)) {
+            if (!isCacheable(project, sourceFileName)) {
+                continue;
+            }
+            // Same inputs were compiled before, maybe in another workspace
+            final List<String> restoredFiles = beamCache.restore(changedFiles.get(sourceFileName), project.getEbinDir());
+            if (null != restoredFiles) {
+                compiledBeamFiles.addAll(restoredFiles);
+                if (null != loader) {
+                    loader.markReplaced(restoredFiles);
+                }
+                database.setInputsHash(sourceFileName, changedFiles.get(sourceFileName));
+                fileNames.remove(sourceFileName);
+            }
+        }
+        if (fileNames.isEmpty()) {
+            database.save();
+            return new CompileResult(compiledBeamFiles, errorMessages);
+        }
+        List<CompileResult> fileCompileResults = compiler.compile(fileNames);
+        if (null == fileCompileResults) {
+            // Parallel build failed as a whole, so try files one by one
+            fileCompileResults = new LinkedList<>();
+            for (final String sourceFileName : fileNames) {
+                fileCompileResults.add(compiler.compile(sourceFileName));
+            }
+        }
+        int index = 0;
+        for (CompileResult fileCompileResult : fileCompileResults) {
+            final String sourceFileName = fileNames.get(index++);
+            if (null != fileCompileResult) {
+                compiledBeamFiles.addAll(fileCompileResult.getOutputFileNames());
+                errorMessages.addAll(fileCompileResult.getErrorsAndWarnings());
+            }
+            if (null != fileCompileResult && !fileCompileResult.getOutputFileNames().isEmpty()) {
+                database.setInputsHash(sourceFileName, changedFiles.get(sourceFileName));
+                if (isCacheable(project, sourceFileName)) {
+                    beamCache.store(changedFiles.get(sourceFileName), fileCompileResult.getOutputFileNames());
+                }
+            }
+            else {
+                // Failed module will be compiled again next time even if not changed
+                database.forget(sourceFileName);
+            }
         }
-//        try {
-//            List<Future<Object>> futures = threadPool.invokeAll(tasks);
-//        } catch (InterruptedException e) {
-//            e.printStackTrace();
-//        }
+        database.save();
         return new CompileResult(compiledBeamFiles, errorMessages);
     }
 
@@ -102,56 +144,117 @@ public class ProjectBuilder {
         });
     }
 
-    private List<String> prepareListOfChangedFiles(ErlangProject project) {
-        File binaryDir = project.getEbinDir();
-        List<ErlangSourceFile> sourceFiles = project.getSourceFiles();
-        List<String> result = new LinkedList<>();
-        for (int i=0; i<sourceFiles.size(); ++i) {
-            final File sourceFile = sourceFiles.get(i).getFile();
-            final String baseName = sourceFile.getName();
-            final int dotPos = baseName.lastIndexOf('.');
-            final String moduleName = baseName.substring(0, dotPos);
-            final File outFile = new File(binaryDir.getAbsolutePath() + "/" + moduleName + ".beam");
-            if (!outFile.exists()) {
-                result.add(sourceFile.getAbsolutePath());
+    public void buildSourcesAsync(ErlangProject project, Map<String, String> sourceTexts, EventTarget eventTarget) {
+        // Unsaved editors are compiled from their text, everything else is built as usual
+        buildService.submit(() -> {
+            List<CompletableFuture<CompileResult>> pendingResults = new LinkedList<>();
+            for (Map.Entry<String, String> sourceText : sourceTexts.entrySet()) {
+                pendingResults.add(compiler.compileSourceAsync(sourceText.getKey(), sourceText.getValue()));
             }
-            else {
-                long sourceTimeStamp = sourceFile.lastModified();
-                long binaryTimeStamp = outFile.lastModified();
-                if (sourceTimeStamp > binaryTimeStamp) {
-                    result.add(sourceFile.getAbsolutePath());
+            CompileResult diskResult = buildProject(project, sourceTexts.keySet());
+            List<String> compiledFiles = new LinkedList<>(diskResult.getOutputFileNames());
+            List<ErlErrorInfo> errorMessages = new LinkedList<>(diskResult.getErrorsAndWarnings());
+            Map<String, byte[]> moduleBinaries = new LinkedHashMap<>();
+            for (CompletableFuture<CompileResult> pendingResult : pendingResults) {
+                try {
+                    CompileResult sourceResult = pendingResult.get();
+                    moduleBinaries.putAll(sourceResult.getModuleBinaries());
+                    errorMessages.addAll(sourceResult.getErrorsAndWarnings());
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
                 }
             }
-        }
+            for (String moduleName : moduleBinaries.keySet()) {
+                compiledFiles.add(moduleName + ".beam");
+            }
+            CompileResult result = new CompileResult(compiledFiles, errorMessages);
+            ProjectBuildFinishedEvent event = new ProjectBuildFinishedEvent(this, null, project, result);
+            Event.fireEvent(eventTarget, event);
+            if (loader!=null) {
+                loader.loadProjectChanges(eventTarget, moduleBinaries);
+            }
+        });
+    }
+
+    private BuildDatabase buildDatabaseOf(ErlangProject project) {
+        final String storagePath = project.getRootDir().getAbsolutePath() + "/.erlyide/build_db.json";
+        return buildDatabases.computeIfAbsent(storagePath, path -> new BuildDatabase(new File(path)));
+    }
+
+    private Map<String, String> prepareListOfChangedFiles(ErlangProject project, BuildDatabase database) {
+        // Source file name to hash of its compiler inputs, for modules to be rebuilt
+        File binaryDir = project.getEbinDir();
+        List<ErlangSourceFile> sourceFiles = project.getSourceFiles();
         List<ErlangIncludeFile> includeFiles = project.getIncludeFiles();
-        for (int i=0; i<includeFiles.size(); ++i) {
-            ErlangIncludeFile includeFile = includeFiles.get(i);
-
-            for (int j=0; j<includeFile.getUsages().size(); ++j) {
-                ErlangSourceFile relatedSourceFile = includeFile.getUsages().get(j);
-                final File sourceFile = relatedSourceFile.getFile();
-                final String baseName = sourceFile.getName();
-                final int dotPos = baseName.lastIndexOf('.');
-                final String moduleName = baseName.substring(0, dotPos);
-                final File outFile = new File(binaryDir.getAbsolutePath() + "/" + moduleName + ".beam");
-                if (!outFile.exists()) {
-                     // Do nothing - this file already in list
-                }
-                else {
-                    long sourceTimeStamp = includeFile.getFile().lastModified();
-                    long binaryTimeStamp = outFile.lastModified();
-                    if (sourceTimeStamp > binaryTimeStamp) {
-                        String path = sourceFile.getAbsolutePath();
-                        if (!result.contains(path)) {
-                            result.add(sourceFile.getAbsolutePath());
-                        }
-                    }
+        Set<String> knownFiles = new HashSet<>();
+        for (ErlangIncludeFile includeFile : includeFiles) {
+            project.scanForIncludes(includeFile);
+            knownFiles.add(includeFile.getFile().getAbsolutePath());
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (ErlangSourceFile erlangSourceFile : sourceFiles) {
+            project.scanForIncludes(erlangSourceFile);
+            final File sourceFile = erlangSourceFile.getFile();
+            final String sourcePath = sourceFile.getAbsolutePath();
+            knownFiles.add(sourcePath);
+            final File outFile = new File(binaryDir.getAbsolutePath() + "/" + erlangSourceFile.getModuleName() + ".beam");
+            final Map<String, File> includes = project.getTransitiveIncludes(erlangSourceFile);
+            for (File includeFile : includes.values()) {
+                // Private headers next to sources are not project files, but their hashes are kept too
+                if (null != includeFile) {
+                    knownFiles.add(includeFile.getAbsolutePath());
                 }
             }
+            final String inputsHash = inputsHashOf(database, sourceFile, includes);
+            if (!outFile.exists()) {
+                result.put(sourcePath, inputsHash);
+            }
+            else if (!database.isKnown(sourcePath) && isNewerThanInputs(outFile, sourceFile, includes)) {
+                // Built before build database existed, trust time stamps once
+                database.setInputsHash(sourcePath, inputsHash);
+            }
+            else if (!database.isUpToDate(sourcePath, inputsHash)) {
+                result.put(sourcePath, inputsHash);
+            }
         }
+        database.retainFiles(knownFiles);
         return result;
     }
 
+    private static boolean isCacheable(ErlangProject project, String sourceFileName) {
+        // Headers outside of project are known by name only, that is not enough to share result
+        ProjectFile projectFile = project.findFileByPath(sourceFileName);
+        return null != projectFile && !project.getTransitiveIncludes(projectFile).containsValue(null);
+    }
+
+    private String inputsHashOf(BuildDatabase database, File sourceFile, Map<String, File> includes) {
+        StringBuilder inputs = new StringBuilder();
+        inputs.append("source ").append(database.fileHash(sourceFile)).append('\n');
+        for (Map.Entry<String, File> include : includes.entrySet()) {
+            // Headers outside of project (OTP and deps) are taken by name only
+            final File includeFile = include.getValue();
+            final String includeHash = null != includeFile ? database.fileHash(includeFile) : "external";
+            inputs.append("include ").append(include.getKey()).append(' ').append(includeHash).append('\n');
+        }
+        inputs.append("options ").append(compiler.compileOptionsKey()).append('\n');
+        return BuildDatabase.hashOf(inputs.toString());
+    }
+
+    private static boolean isNewerThanInputs(File outFile, File sourceFile, Map<String, File> includes) {
+        final long binaryTimeStamp = outFile.lastModified();
+        if (sourceFile.lastModified() > binaryTimeStamp) {
+            return false;
+        }
+        for (File includeFile : includes.values()) {
+            if (null != includeFile && includeFile.lastModified() > binaryTimeStamp) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void setLoader(ProjectLoader loader) {
         this.loader = loader;
     }
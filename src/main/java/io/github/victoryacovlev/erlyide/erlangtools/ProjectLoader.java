@@ -25,10 +25,14 @@ import org.joda.time.DateTime;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ProjectLoader {
 
@@ -36,6 +40,7 @@ public class ProjectLoader {
     private final ErlangVM vm;
     private final ErlangProject erlangProject;
     private Map<String, Long> loadedVersions = new HashMap<>();
+    private final Set<String> replacedBeamFiles = Collections.synchronizedSet(new HashSet<>());
 
     public ProjectLoader(ErlangVM vm, ErlangProject erlangProject) {
         this.vm = vm;
@@ -63,7 +68,19 @@ public class ProjectLoader {
         return loader;
     }
 
+    public void markReplaced(Collection<String> beamFileNames) {
+        // Files restored from cache may be older than loaded ones, so their time tells nothing
+        for (String beamFileName : beamFileNames) {
+            replacedBeamFiles.add(new File(beamFileName).getAbsolutePath());
+        }
+    }
+
     public void loadProjectChanges(EventTarget eventTarget) {
+        loadProjectChanges(eventTarget, Collections.emptyMap());
+    }
+
+    public void loadProjectChanges(EventTarget eventTarget, Map<String, byte[]> moduleBinaries) {
+        // Module binaries are compiled from editors text and replace what is in ebin
         File ebinRoot = erlangProject.getEbinDir();
         ensureEbinInPath(ebinRoot);
         List<String> reloadedNames = new LinkedList<>();
@@ -76,6 +93,7 @@ public class ProjectLoader {
             String beamName = moduleName + ".beam";
             String fullBeamPath = ebinRoot + "/" + beamName;
             File beamFile = new File(fullBeamPath);
+            final boolean replaced = replacedBeamFiles.remove(beamFile.getAbsolutePath());
             if (beamFile.exists()) {
                 long beamVersion = beamFile.lastModified();
                 boolean update = true;
@@ -83,7 +101,7 @@ public class ProjectLoader {
                 if (loadedVersions.containsKey(fullBeamPath)) {
                     unload = true;
                     long loadedVersion = loadedVersions.get(fullBeamPath).longValue();
-                    if (beamVersion <= loadedVersion) {
+                    if (beamVersion <= loadedVersion && !replaced) {
                         update = false;
                     }
                 }
@@ -98,18 +116,56 @@ public class ProjectLoader {
                 }
             }
         }
+        for (Map.Entry<String, byte[]> entry : moduleBinaries.entrySet()) {
+            final String moduleName = entry.getKey();
+            if (null == erlangProject.findSourceFileByModuleName(moduleName)) {
+                // Unlike compiling a file, compiling text does not check module name matches file name
+                notReloadedNames.add(moduleName);
+                continue;
+            }
+            final File beamFile = new File(ebinRoot + "/" + moduleName + ".beam");
+            // Older file from ebin must not replace loaded code until rebuilt
+            loadedVersions.put(beamFile.getPath(), beamFile.exists() ? beamFile.lastModified() : 0L);
+            if (loadBinaryModule(moduleName, beamFile.getAbsolutePath(), entry.getValue())) {
+                reloadedNames.add(moduleName);
+            }
+            else {
+                notReloadedNames.add(moduleName);
+            }
+        }
 //        resumeProcesses(processes);
         ProjectLoadFinishedEvent event = new ProjectLoadFinishedEvent(this, null, erlangProject, reloadedNames, notReloadedNames);
         Event.fireEvent(eventTarget, event);
     }
 
+    private boolean loadBinaryModule(String moduleName, String fileName, byte[] moduleBinary) {
+        try {
+            OtpErlangAtom moduleAtom = new OtpErlangAtom(moduleName);
+            vm.run(ErlangVM.Lane.BATCH, "code", "purge", new OtpErlangList(new OtpErlangObject[]{moduleAtom}));
+            OtpErlangObject loadStatus = vm.run(ErlangVM.Lane.BATCH, "code", "load_binary", new OtpErlangList(new OtpErlangObject[]{
+                    moduleAtom, new OtpErlangString(fileName), new OtpErlangBinary(moduleBinary)
+            }));
+            return loadStatus instanceof OtpErlangTuple
+                    && ((OtpErlangTuple) loadStatus).elementAt(0).equals(new OtpErlangAtom("module"));
+        } catch (OtpErlangExit otpErlangExit) {
+            otpErlangExit.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OtpAuthException e) {
+            e.printStackTrace();
+        } catch (OtpErlangDecodeException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     private OtpErlangList pauseProcesses() {
         OtpErlangList erlProcessList = new OtpErlangList();
         try {
             // Get all processes to suspend
-            erlProcessList = (OtpErlangList) vm.run("erlang", "processes", new OtpErlangList());
+            erlProcessList = (OtpErlangList) vm.run(ErlangVM.Lane.BATCH, "erlang", "processes", new OtpErlangList());
             for (OtpErlangObject erlProcess : erlProcessList.elements()) {
-                OtpErlangObject suspendStatus = vm.run("sys", "suspend", new OtpErlangList(new OtpErlangObject[]{erlProcess}));
+                OtpErlangObject suspendStatus = vm.run(ErlangVM.Lane.BATCH, "sys", "suspend", new OtpErlangList(new OtpErlangObject[]{erlProcess}));
                 String s = suspendStatus.toString();
                 System.out.println("Suspend " +erlProcess.toString() + ": " + s);
             }
@@ -129,7 +185,7 @@ public class ProjectLoader {
     private void resumeProcesses(OtpErlangList erlProcessList) {
         try {
             for (OtpErlangObject erlProcess : erlProcessList) {
-                OtpErlangObject resumeStatus = vm.run("sys", "resume", new OtpErlangList(new OtpErlangObject[]{erlProcess}));
+                OtpErlangObject resumeStatus = vm.run(ErlangVM.Lane.BATCH, "sys", "resume", new OtpErlangList(new OtpErlangObject[]{erlProcess}));
                 String s = resumeStatus.toString();
                 System.out.println("Resume " +erlProcess.toString() + ": " + s);
             }
@@ -148,10 +204,10 @@ public class ProjectLoader {
         try {
             OtpErlangAtom moduleAtom = new OtpErlangAtom(moduleName);
             if (unloadBefore) {
-                OtpErlangObject purgeStatus = vm.run("code", "purge", new OtpErlangList(new OtpErlangObject[]{moduleAtom}));
+                OtpErlangObject purgeStatus = vm.run(ErlangVM.Lane.BATCH, "code", "purge", new OtpErlangList(new OtpErlangObject[]{moduleAtom}));
                 String ps = purgeStatus.toString();
             }
-            OtpErlangObject loadStatus = vm.run("code", "load_file", new OtpErlangList(new OtpErlangObject[]{moduleAtom}));
+            OtpErlangObject loadStatus = vm.run(ErlangVM.Lane.BATCH, "code", "load_file", new OtpErlangList(new OtpErlangObject[]{moduleAtom}));
             String ls = loadStatus.toString();
             return true;
         } catch (OtpErlangExit otpErlangExit) {
@@ -170,7 +226,7 @@ public class ProjectLoader {
 
     private void ensureEbinInPath(File ebinRoot) {
         try {
-            OtpErlangObject erlPath = vm.run("code", "get_path", new OtpErlangList());
+            OtpErlangObject erlPath = vm.run(ErlangVM.Lane.BATCH, "code", "get_path", new OtpErlangList());
             boolean foundInPath = false;
             if (erlPath instanceof OtpErlangList) {
                 OtpErlangList erlPathList = (OtpErlangList) erlPath;
@@ -186,7 +242,7 @@ public class ProjectLoader {
             }
             if (!foundInPath) {
                 OtpErlangString erlPathEntry = new OtpErlangString(ebinRoot.getAbsolutePath());
-                OtpErlangObject status = vm.run("code", "add_patha", new OtpErlangList(new OtpErlangObject[]{erlPathEntry}));
+                OtpErlangObject status = vm.run(ErlangVM.Lane.BATCH, "code", "add_patha", new OtpErlangList(new OtpErlangObject[]{erlPathEntry}));
                 if (status instanceof OtpErlangTuple) {
                     System.err.println(status.toString());
                 }
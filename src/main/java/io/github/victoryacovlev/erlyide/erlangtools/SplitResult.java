@@ -21,10 +21,16 @@ import java.util.List;
 public class SplitResult {
     public final List<ErlToken> tokens;
     public final ErlErrorInfo error;
+    public final ErlLexerState endState;
 
     public SplitResult(List<ErlToken> tokens, ErlErrorInfo error) {
+        this(tokens, error, ErlLexerState.NORMAL);
+    }
+
+    public SplitResult(List<ErlToken> tokens, ErlErrorInfo error, ErlLexerState endState) {
         this.tokens = tokens;
         this.error = error;
+        this.endState = endState;
     }
 
     public boolean isSuccess() {
@@ -32,17 +32,36 @@ import javafx.scene.text.Font;
 import javafx.stage.Popup;
 import org.fxmisc.richtext.*;
 import org.fxmisc.richtext.model.RichTextChange;
-import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional;
 
 import java.io.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, EditingInterface {
 
     private final ErlangCompiler erlScan;
     private List<ErlErrorInfo> errors = new LinkedList<>();
+    // Rebuilt as a whole on every errors change, never modified after publishing
+    private volatile Map<Integer, List<ErlErrorInfo>> errorsByLine = Collections.emptyMap();
+    private static final Map<ErlToken.Category, Collection<String>> TOKEN_STYLES = buildTokenStyles(null);
+    private static final Map<ErlToken.Category, Collection<String>> ERROR_TOKEN_STYLES = buildTokenStyles("compiler_error");
+    private static final Map<ErlToken.Category, Collection<String>> WARNING_TOKEN_STYLES = buildTokenStyles("compiler_warning");
+    private static final Collection<String> NEW_LINE_STYLE = Collections.singleton("nl");
+    private final List<ErlLexerState> paragraphEndStates = new ArrayList<>();
+    private CompletableFuture<List<SplitResult>> pendingRescan = null;
+    private List<Integer> pendingRescanParagraphs = Collections.emptyList();
+    private static final int HIGHLIGHT_CHUNK_SIZE = 500;
+    // Paragraphs before this one have final styles and known end states, the rest is done in background
+    private int highlightedParagraphs = 0;
+    private boolean highlightingScheduled = false;
+    private final BitSet provisionallyHighlighted = new BitSet();
+    private static final long SYNTAX_CHECK_DELAY = Long.getLong("erlyide.syntaxCheckDelay", 500);
+    private CompletableFuture<List<ErlErrorInfo>> pendingSyntaxCheck = null;
+    private String lastCheckedText = null;
+    private int textVersion = 0;
     private int mainFontSize = 12;
     private int presentationModeFontSize = 16;
     private boolean presentationMode = false;
@@ -73,25 +92,26 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
         this.projectFile = file;
         projectFile.setEditor(this);
         try {
-            InputStream initialInputStream = new FileInputStream(this.projectFile.getFile());
-            Scanner s = new Scanner(initialInputStream);
-            s.useDelimiter("\\A");
-            String initialText = s.next();
-            initialInputStream.close();
-            insertText(0, initialText);
+            insertText(0, ProjectFile.readText(this.projectFile.getFile()));
             getUndoManager().mark();
             moveTo(0);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
         }
         erlScan = compiler;
         setParagraphGraphicFactory(LineNumberFactory.get(this));
         richChanges()
-                .filter(ch -> !ch.getInserted().equals(ch.getRemoved()))
+                .filter(ch -> !ch.getInserted().getText().equals(ch.getRemoved().getText()))
                 .subscribe(this::handleTextChange);
+        // Header alone is not a module, checking it would give module level errors only
+        if (projectFile instanceof ErlangSourceFile) {
+            richChanges()
+                    .filter(ch -> !ch.getInserted().getText().equals(ch.getRemoved().getText()))
+                    .successionEnds(Duration.ofMillis(SYNTAX_CHECK_DELAY))
+                    .subscribe(ch -> checkSyntax());
+        }
         applyHighlightings();
+        estimatedScrollYProperty().addListener((observable, oldValue, newValue) -> highlightVisibleParagraphs());
 
         errorOrWarningPopup = new Popup();
         errorOrWarningPopupLabel = new Label();
@@ -105,16 +125,14 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
             final int lineNo = getLineNumberByCharIndex(chIdx);
             final int erlangLineNo = lineNo + 1;
             String messages = null;
-            for (ErlErrorInfo erlErrorInfo : errors) {
-                if (erlangLineNo==erlErrorInfo.line) {
-                    if (null==messages)
-                        messages = "";
-                    else
-                        messages+="\n";
-                    String message = ErlErrorInfo.ERROR==erlErrorInfo.type ? "Error: " : "Warning: ";
-                    message += erlErrorInfo.message;
-                    messages += message;
-                }
+            for (ErlErrorInfo erlErrorInfo : errorsByLine.getOrDefault(erlangLineNo, Collections.emptyList())) {
+                if (null==messages)
+                    messages = "";
+                else
+                    messages+="\n";
+                String message = ErlErrorInfo.ERROR==erlErrorInfo.type ? "Error: " : "Warning: ";
+                message += erlErrorInfo.message;
+                messages += message;
             }
             if (null!=messages) {
                 Point2D pos = e.getScreenPosition();
@@ -211,26 +229,237 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
                     errors.add(erlErrorInfo);
                 }
             }
+            rebuildErrorsIndex();
         }
         Platform.runLater(this::applyHighlightings);
         event.consume();
     }
 
     private int getLineNumberByCharIndex(int chIdx) {
-        final String text = getText();
-        int result = 0;
-        for (int i=0; i<Integer.min(chIdx, text.length()); ++i) {
-            final char ch = text.charAt(i);
-            if ('\n'==ch)
-                result++;
-        }
-        return result;
+        // Document keeps paragraphs in a tree, so no text is copied or walked through
+        final int offset = Integer.max(0, Integer.min(chIdx, getLength()));
+        return offsetToPosition(offset, TwoDimensional.Bias.Forward).getMajor();
     }
 
     private void applyHighlightings() {
+        // Only the first chunk is done right away, so opening a file takes the same time whatever its size is
+        paragraphEndStates.clear();
+        paragraphEndStates.addAll(Collections.nCopies(getParagraphs().size(), null));
+        highlightedParagraphs = 0;
+        provisionallyHighlighted.clear();
+        highlightNextChunk();
+    }
+
+    private void scheduleHighlighting() {
+        if (!highlightingScheduled && highlightedParagraphs < getParagraphs().size()) {
+            highlightingScheduled = true;
+            Platform.runLater(() -> {
+                highlightingScheduled = false;
+                highlightVisibleParagraphs();
+                highlightNextChunk();
+            });
+        }
+    }
+
+    private void highlightNextChunk() {
+        final int paragraphsCount = getParagraphs().size();
+        if (highlightedParagraphs >= paragraphsCount) {
+            return;
+        }
+        final int first = highlightedParagraphs;
+        final int last = Integer.min(paragraphsCount, first + HIGHLIGHT_CHUNK_SIZE) - 1;
+        final ErlLexerState stateBefore = first > 0 ? paragraphEndStates.get(first-1) : ErlLexerState.NORMAL;
+        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+        List<Integer> paragraphsToRescan = new LinkedList<>();
+        highlightRange(first, last, stateBefore, spansBuilder, paragraphsToRescan);
+        setStyleSpans(getAbsolutePosition(first, 0), spansBuilder.create());
+        highlightedParagraphs = last + 1;
+        rescanUsingErlang(paragraphsToRescan);
+        scheduleHighlighting();
+    }
+
+    private void highlightVisibleParagraphs() {
+        // Visible part not reached by background highlighting yet is painted assuming it starts
+        // outside of multi-line string, background pass makes it right later
+        final int paragraphsCount = getParagraphs().size();
+        if (highlightedParagraphs >= paragraphsCount || getHeight() <= 0) {
+            return;
+        }
+        final int firstVisible = Integer.max(highlightedParagraphs,
+                getLineNumberByCharIndex(hit(0, 0).getInsertionIndex()));
+        final int lastVisible = Integer.min(paragraphsCount - 1,
+                getLineNumberByCharIndex(hit(0, getHeight()).getInsertionIndex()));
+        for (int paragraph = firstVisible; paragraph <= lastVisible; ++paragraph) {
+            if (!provisionallyHighlighted.get(paragraph)) {
+                final String lineText = getText(paragraph);
+                final SplitResult scanResult = erlScan.splitLinesIntoLexemsLocally(
+                        Collections.singletonList(lineText), paragraph + 1, ErlLexerState.NORMAL).get(0);
+                StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+                computeParagraphHighlighting(paragraph, lineText, scanResult, spansBuilder);
+                setStyleSpans(getAbsolutePosition(paragraph, 0), spansBuilder.create());
+                provisionallyHighlighted.set(paragraph);
+            }
+        }
+    }
+
+    private ErlLexerState highlightRange(final int first, final int last, final ErlLexerState stateBefore,
+                                         StyleSpansBuilder<Collection<String>> spansBuilder, List<Integer> paragraphsToRescan) {
+        List<String> lines = new ArrayList<>(last - first + 1);
+        for (int paragraph = first; paragraph <= last; ++paragraph) {
+            lines.add(getText(paragraph));
+        }
+        List<SplitResult> results = erlScan.splitLinesIntoLexemsLocally(lines, first + 1, stateBefore);
+        ErlLexerState stateAfter = stateBefore;
+        for (int i=0; i<results.size(); ++i) {
+            final SplitResult scanResult = results.get(i);
+            if (!scanResult.isSuccess() && ErlLexerState.NORMAL == stateAfter) {
+                paragraphsToRescan.add(first + i);
+            }
+            stateAfter = computeParagraphHighlighting(first + i, lines.get(i), scanResult, spansBuilder);
+            paragraphEndStates.set(first + i, stateAfter);
+        }
+        return stateAfter;
+    }
+
+    private void applyHighlightings(final int firstParagraph, final int lastChangedParagraph) {
+        // Paragraphs not reached by background highlighting are left to it
+        final int paragraphsCount = Integer.min(getParagraphs().size(), highlightedParagraphs);
+        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+        List<Integer> paragraphsToRescan = new LinkedList<>();
+        final ErlLexerState firstStateBefore = firstParagraph > 0
+                ? paragraphEndStates.get(firstParagraph-1) : ErlLexerState.NORMAL;
+        ErlLexerState stateAfter = highlightRange(firstParagraph, lastChangedParagraph, firstStateBefore,
+                spansBuilder, paragraphsToRescan);
+        int paragraph = lastChangedParagraph + 1;
+        while (paragraph < paragraphsCount) {
+            final String lineText = getText(paragraph);
+            final SplitResult scanResult = erlScan.splitLinesIntoLexemsLocally(
+                    Collections.singletonList(lineText), paragraph + 1, stateAfter).get(0);
+            if (!scanResult.isSuccess() && ErlLexerState.NORMAL == stateAfter) {
+                paragraphsToRescan.add(paragraph);
+            }
+            stateAfter = computeParagraphHighlighting(paragraph, lineText, scanResult, spansBuilder);
+            final ErlLexerState previousStateAfter = paragraphEndStates.get(paragraph);
+            paragraphEndStates.set(paragraph, stateAfter);
+            paragraph++;
+            if (stateAfter == previousStateAfter) {
+                break;
+            }
+        }
+        setStyleSpans(getAbsolutePosition(firstParagraph, 0), spansBuilder.create());
+        rescanUsingErlang(paragraphsToRescan);
+    }
+
+    private void restyleParagraphs(final Collection<Integer> paragraphs) {
+        // Lexer states stay the same, only line styles are rebuilt, e.g. on errors change
+        List<Integer> paragraphsToRescan = new LinkedList<>();
+        for (int paragraph : paragraphs) {
+            if (paragraph < 0 || paragraph >= getParagraphs().size() || paragraph >= paragraphEndStates.size()) {
+                continue;
+            }
+            final ErlLexerState stateBefore = paragraph > 0 && null != paragraphEndStates.get(paragraph-1)
+                    ? paragraphEndStates.get(paragraph-1) : ErlLexerState.NORMAL;
+            final String lineText = getText(paragraph);
+            final SplitResult scanResult = erlScan.splitLinesIntoLexemsLocally(
+                    Collections.singletonList(lineText), paragraph + 1, stateBefore).get(0);
+            if (!scanResult.isSuccess() && ErlLexerState.NORMAL == stateBefore) {
+                paragraphsToRescan.add(paragraph);
+            }
+            StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+            computeParagraphHighlighting(paragraph, lineText, scanResult, spansBuilder);
+            setStyleSpans(getAbsolutePosition(paragraph, 0), spansBuilder.create());
+        }
+        rescanUsingErlang(paragraphsToRescan);
+    }
+
+    private void checkSyntax() {
+        // Runs when user stops typing, at most one check result is awaited at a time
         final String text = getText();
-        StyleSpans<Collection<String>> highlights = computeHighlighting(text);
-        setStyleSpans(0, highlights);
+        if (text.equals(lastCheckedText)) {
+            return;
+        }
+        if (null != pendingSyntaxCheck) {
+            pendingSyntaxCheck.cancel(false);
+        }
+        final int checkedTextVersion = textVersion;
+        final CompletableFuture<List<ErlErrorInfo>> check =
+                erlScan.checkSyntaxAsync(text, projectFile.getFile().getAbsolutePath());
+        pendingSyntaxCheck = check;
+        check.thenAccept(newErrors -> Platform.runLater(() -> {
+            if (check != pendingSyntaxCheck) {
+                return;
+            }
+            pendingSyntaxCheck = null;
+            // Text checked is remembered only when its result is shown, so dropped result gets checked again
+            if (null != newErrors && checkedTextVersion == textVersion) {
+                lastCheckedText = text;
+                replaceErrors(newErrors);
+            }
+        }));
+    }
+
+    private void replaceErrors(List<ErlErrorInfo> newErrors) {
+        Set<Integer> changedParagraphs = new TreeSet<>();
+        synchronized (errors) {
+            for (ErlErrorInfo erlErrorInfo : errors) {
+                changedParagraphs.add(erlErrorInfo.line - 1);
+            }
+            errors.clear();
+            errors.addAll(newErrors);
+            for (ErlErrorInfo erlErrorInfo : errors) {
+                changedParagraphs.add(erlErrorInfo.line - 1);
+            }
+            rebuildErrorsIndex();
+        }
+        restyleParagraphs(changedParagraphs);
+    }
+
+    private void rescanUsingErlang(final List<Integer> newParagraphs) {
+        // Lines Java lexer does not understand are scanned by Erlang node in background,
+        // a newer request replaces pending one, so it takes over paragraphs pending one has not done yet
+        Set<Integer> allParagraphs = new TreeSet<>(newParagraphs);
+        if (null != pendingRescan) {
+            for (int paragraph : pendingRescanParagraphs) {
+                if (paragraph < getParagraphs().size()) {
+                    allParagraphs.add(paragraph);
+                }
+            }
+        }
+        final List<Integer> paragraphs = new ArrayList<>(allParagraphs);
+        if (null != pendingRescan) {
+            pendingRescan.cancel(false);
+            pendingRescan = null;
+        }
+        if (paragraphs.isEmpty()) {
+            return;
+        }
+        pendingRescanParagraphs = paragraphs;
+        final List<String> lines = new ArrayList<>(paragraphs.size());
+        final List<Integer> lineNumbers = new ArrayList<>(paragraphs.size());
+        for (int paragraph : paragraphs) {
+            lines.add(getText(paragraph));
+            lineNumbers.add(paragraph + 1);
+        }
+        final CompletableFuture<List<SplitResult>> rescan = erlScan.splitLinesIntoLexemsAsync(lines, lineNumbers);
+        pendingRescan = rescan;
+        rescan.thenAccept(results -> Platform.runLater(() -> {
+            if (rescan != pendingRescan) {
+                return;
+            }
+            pendingRescan = null;
+            if (null == results) {
+                return;
+            }
+            for (int i=0; i<paragraphs.size(); ++i) {
+                final int paragraph = paragraphs.get(i);
+                final SplitResult scanResult = results.get(i);
+                if (null != scanResult && paragraph < getParagraphs().size() && getText(paragraph).equals(lines.get(i))) {
+                    StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+                    computeParagraphHighlighting(paragraph, lines.get(i), scanResult, spansBuilder);
+                    setStyleSpans(getAbsolutePosition(paragraph, 0), spansBuilder.create());
+                }
+            }
+        }));
     }
 
     public void applyChanges(List<ProjectFileChange> changes) {
@@ -249,7 +478,29 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
     }
 
     private void handleTextChange(RichTextChange<Collection<String>,Collection<String>> change) {
-        applyHighlightings();
+        textVersion++;
+        final int removedLineBreaks = change.getRemoved().getParagraphs().size() - 1;
+        final int insertedLineBreaks = change.getInserted().getParagraphs().size() - 1;
+        final int firstParagraph = offsetToPosition(change.getPosition(), TwoDimensional.Bias.Forward).getMajor();
+        final int lastChangedParagraph = firstParagraph + insertedLineBreaks;
+        shiftPendingRescan(firstParagraph, removedLineBreaks, insertedLineBreaks);
+        if (paragraphEndStates.size() - removedLineBreaks + insertedLineBreaks == getParagraphs().size()) {
+            // Keep cached state of last removed paragraph: it ends at the same place as last inserted one
+            paragraphEndStates.subList(firstParagraph, firstParagraph + removedLineBreaks).clear();
+            paragraphEndStates.addAll(firstParagraph, Collections.nCopies(insertedLineBreaks, null));
+            provisionallyHighlighted.clear();
+            if (firstParagraph + removedLineBreaks < highlightedParagraphs) {
+                highlightedParagraphs += insertedLineBreaks - removedLineBreaks;
+                applyHighlightings(firstParagraph, lastChangedParagraph);
+            }
+            else {
+                highlightedParagraphs = Integer.min(highlightedParagraphs, firstParagraph);
+                scheduleHighlighting();
+            }
+        }
+        else {
+            applyHighlightings();
+        }
         if (errorOrWarningPopup!=null && errorOrWarningPopup.isShowing())
             errorOrWarningPopup.hide();
         TextEditedEvent event = new TextEditedEvent(this, null);
@@ -257,91 +508,118 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
 
     }
 
-    private StyleSpans<Collection<String>> computeHighlighting(String text) {
-        final String lines[] = text.split("\n");
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        int lineStartPos = 0;
-        for (int lineNo=0; lineNo<lines.length; ++lineNo) {
-            final String lineText = lines[lineNo];
-            int itemEnd = lineStartPos;
-            if (lineText.length() > 0) {
-                SplitResult scanResult = erlScan.splitLineIntoLexems(lineText, lineNo+1);
-                if (projectFile instanceof ErlangSourceFile) {
-                    extractModuleName(scanResult.tokens, lineText);
-                }
-                for (ErlToken token : scanResult.tokens) {
-                    final int start = lineStartPos + token.column - 1;
-                    int length = token.text.length();
-                    String styleClass = ErlToken.Category.WHITE_SPACE==token.type ? null :
-                            token.type.toString().toLowerCase();
-                    if (ErlToken.Category.STRING==token.type ||
-                            ErlToken.Category.ATOM==token.type && lineText.charAt(token.column-1)=='\'' ||
-                            ErlToken.Category.FUNCTION==token.type && lineText.charAt(token.column-1)=='\''
-                            ) {
-                        length += 2;
-                    }
-                    spansBuilder.add(Collections.emptyList(), start-itemEnd);
-                    Set<String> tokenSpans = null;
-                    final String errorClass = errorClassAtLine(lineNo+1);
-                    if (errorClass==null) {
-                        tokenSpans = Collections.singleton(styleClass);
-                    }
-                    else {
-                        Set<String> tokenClasses = new HashSet<>(Arrays.asList(styleClass, errorClass));
-                        tokenSpans = tokenClasses; // TODO optimize me!
-                    }
-                    spansBuilder.add(tokenSpans, length);
-                    itemEnd = start + length;
-                }
+    private void shiftPendingRescan(final int firstParagraph, final int removedLineBreaks, final int insertedLineBreaks) {
+        // Changed paragraphs are scanned again anyway, paragraphs below them move with the text
+        if (null == pendingRescan) {
+            return;
+        }
+        List<Integer> shifted = new ArrayList<>(pendingRescanParagraphs.size());
+        for (int paragraph : pendingRescanParagraphs) {
+            if (paragraph < firstParagraph) {
+                shifted.add(paragraph);
+            }
+            else if (paragraph > firstParagraph + removedLineBreaks) {
+                shifted.add(paragraph + insertedLineBreaks - removedLineBreaks);
             }
-            int remainingLength = lineStartPos + lineText.length() - itemEnd;
-            spansBuilder.add(Collections.emptyList(), remainingLength);
-            lineStartPos += lineText.length();
-            if (text.length() > lineStartPos && text.charAt(lineStartPos)=='\n')
-                spansBuilder.add(Collections.singleton("nl"), 1);
-            lineStartPos++;
         }
-        return spansBuilder.create();
+        pendingRescanParagraphs = shifted;
+    }
+
+    private ErlLexerState computeParagraphHighlighting(final int paragraph, final String lineText, final SplitResult scanResult,
+                                                       StyleSpansBuilder<Collection<String>> spansBuilder) {
+        final int lineNo = paragraph + 1;
+        int itemEnd = 0;
+        if (lineText.length() > 0) {
+            if (projectFile instanceof ErlangSourceFile) {
+                extractModuleName(scanResult.tokens, lineText);
+            }
+            final Map<ErlToken.Category, Collection<String>> lineStyles = stylesForErrorClass(errorClassAtLine(lineNo));
+            final Iterator<ErlToken> tokensIterator = scanResult.tokens.iterator();
+            ErlToken token = tokensIterator.hasNext() ? tokensIterator.next() : null;
+            while (null != token) {
+                final ErlToken nextToken = tokensIterator.hasNext() ? tokensIterator.next() : null;
+                // Token spans up to the next one, so escaped and quoted text is covered as is
+                final int start = Integer.max(itemEnd, Integer.min(lineText.length(), token.column - 1));
+                final int end = null != nextToken
+                        ? Integer.max(start, Integer.min(lineText.length(), nextToken.column - 1))
+                        : lineText.length();
+                spansBuilder.add(Collections.emptyList(), start-itemEnd);
+                spansBuilder.add(lineStyles.get(token.type), end-start);
+                itemEnd = end;
+                token = nextToken;
+            }
+        }
+        spansBuilder.add(Collections.emptyList(), lineText.length() - itemEnd);
+        if (paragraph < getParagraphs().size()-1)
+            spansBuilder.add(NEW_LINE_STYLE, 1);
+        return scanResult.endState;
+    }
+
+    private void rebuildErrorsIndex() {
+        // Called with errors locked
+        Map<Integer, List<ErlErrorInfo>> index = new HashMap<>();
+        for (ErlErrorInfo errorInfo : errors) {
+            index.computeIfAbsent(errorInfo.line, line -> new ArrayList<>(1)).add(errorInfo);
+        }
+        errorsByLine = index;
     }
 
     private String errorClassAtLine(int lineNo) {
         String result = null;
-        synchronized (errors) {
-            for (ErlErrorInfo errorInfo : errors) {
-                if (errorInfo.line == lineNo) {
-                    if (result == null || !result.equals("compiler_error")) {
-                        switch (errorInfo.type) {
-                            case ErlErrorInfo.ERROR:
-                                result = "compiler_error";
-                                break;
-                            case ErlErrorInfo.WARNNING:
-                                result = "compiler_warning";
-                                break;
-                            default:
-                                break;
-                        }
-                    }
-                }
+        for (ErlErrorInfo errorInfo : errorsByLine.getOrDefault(lineNo, Collections.emptyList())) {
+            switch (errorInfo.type) {
+                case ErlErrorInfo.ERROR:
+                    return "compiler_error";
+                case ErlErrorInfo.WARNNING:
+                    result = "compiler_warning";
+                    break;
+                default:
+                    break;
             }
         }
         return result;
     }
 
+    private static Map<ErlToken.Category, Collection<String>> stylesForErrorClass(String errorClass) {
+        if ("compiler_error".equals(errorClass)) {
+            return ERROR_TOKEN_STYLES;
+        }
+        else if ("compiler_warning".equals(errorClass)) {
+            return WARNING_TOKEN_STYLES;
+        }
+        return TOKEN_STYLES;
+    }
 
-    public void saveFileIfChanged() {
+    private static Map<ErlToken.Category, Collection<String>> buildTokenStyles(String errorClass) {
+        // White space has no class of its own, but still gets error underline
+        Map<ErlToken.Category, Collection<String>> result = new EnumMap<>(ErlToken.Category.class);
+        for (ErlToken.Category category : ErlToken.Category.values()) {
+            List<String> classes = new ArrayList<>(2);
+            if (ErlToken.Category.WHITE_SPACE != category) {
+                classes.add(category.toString().toLowerCase());
+            }
+            if (null != errorClass) {
+                classes.add(errorClass);
+            }
+            result.put(category, Collections.unmodifiableList(classes));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+
+    public CompletableFuture<Void> saveFileIfChanged() {
         if (!getUndoManager().isAtMarkedPosition()) {
-            saveFile();
+            return saveFile();
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    public void saveFile() {
+    public CompletableFuture<Void> saveFile() {
+        // Text is written in background, returned future completes once it is on disk
         final String text = getText();
         ErlangProject project = projectFile.getParent();
-        if (projectFile instanceof ErlangSourceFile) {
-            project.scanForIncludes((ErlangSourceFile) projectFile, text);
-        }
         if (moduleName==null && projectFile instanceof ErlangSourceFile) {
-            computeHighlighting(text);
+            applyHighlightings();
         }
         final String dir = projectFile.getFile().getParent();
         final String name = projectFile.getFile().getName();
@@ -353,10 +631,15 @@ public class ErlangCodeArea extends CodeArea implements FontSizeAjuctable, Editi
         if (! name.equals(correctName)) {
             projectFile.setName(correctPath, false, false);
         }
-        projectFile.write(text);
+        CompletableFuture<Void> written = projectFile.writeAsync(text);
+        if (projectFile instanceof ErlangSourceFile || projectFile instanceof ErlangIncludeFile) {
+            // After write, so recorded file stamp is up to date
+            written = written.thenRun(() -> project.scanForIncludes(projectFile, text));
+        }
         getUndoManager().mark();
         FileSavedEvent event = new FileSavedEvent(this, null);
         fireEvent(event);
+        return written;
     }
 
     private String extractModuleName(final List<ErlToken> tokenList, final String line) {
@@ -48,6 +48,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -267,7 +269,11 @@ public class MainWindowController implements Initializable {
 
     @FXML public void switchWorkspace() throws InterruptedException, IOException, OtpAuthException {
         if (wokrspaceChooserController.execDialog(stage)) {
-            saveAll();
+            try {
+                saveAll().join();
+            } catch (CompletionException e) {
+                e.printStackTrace();
+            }
             tabPane.getTabs().remove(1, tabPane.getTabs().size()-1);
             final String workspaceDir = wokrspaceChooserController.getSelectedWorkspacePath();
             terminal.appendTextFromCommandProcessor("\nRestarting Erlang with new workspace: " + workspaceDir + "...\n");
@@ -330,22 +336,46 @@ public class MainWindowController implements Initializable {
         }
     }
 
-    public void saveAll() {
+    public CompletableFuture<Void> saveAll() {
+        // Files are written in parallel in background, returned future completes when all of them are written
+        List<CompletableFuture<Void>> writes = new LinkedList<>();
         for (int i=1; i<tabPane.getTabs().size(); ++i) {
             Tab tab = tabPane.getTabs().get(i);
             EditorTab editorTab = (EditorTab) tab;
             if (editorTab!=null) {
-                editorTab.getEditor().saveFileIfChanged();
+                writes.add(editorTab.getEditor().saveFileIfChanged());
             }
         }
         System.gc();
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
     }
 
     @FXML
     public void saveAllCompileAndReload() {
-        saveAll();
         Logger.getInstance().addEventEntry(new BuildStartedEventLogEntry());
-        ProjectBuilder.instance().buildProjectAsync(erlangProject, rootNode);
+        saveAll().whenComplete((result, error) -> {
+            if (null != error) {
+                error.printStackTrace();
+            }
+            ProjectBuilder.instance().buildProjectAsync(erlangProject, rootNode);
+        });
+    }
+
+    @FXML
+    public void compileAndReload() {
+        // Changed editors are compiled from their text without saving
+        Map<String, String> sourceTexts = new LinkedHashMap<>();
+        for (int i=1; i<tabPane.getTabs().size(); ++i) {
+            EditorTab editorTab = (EditorTab) tabPane.getTabs().get(i);
+            ErlangCodeArea editor = editorTab.getEditor();
+            ProjectFile projectFile = editor.getProjectFile();
+            if (projectFile instanceof ErlangSourceFile && projectFile.getParent() == erlangProject
+                    && !editor.getUndoManager().isAtMarkedPosition()) {
+                sourceTexts.put(projectFile.getFile().getAbsolutePath(), editor.getText());
+            }
+        }
+        Logger.getInstance().addEventEntry(new BuildStartedEventLogEntry());
+        ProjectBuilder.instance().buildSourcesAsync(erlangProject, sourceTexts, rootNode);
     }
 
     private void handleProjectBuildFinished(ProjectBuildFinishedEvent event) {
@@ -27,8 +27,12 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 class ProjectGroupTreeItem extends TreeItem<String> {
     private final String groupName;
@@ -57,18 +61,14 @@ class ProjectGroupTreeItem extends TreeItem<String> {
 
 
     private void updateFromCollection(ObservableList<ProjectFile> list) {
-        List<TreeItem<String>> toRemove = new LinkedList<>();
+        Map<ProjectFile, TreeItem<String>> existingItems = new IdentityHashMap<>();
+        for (TreeItem<String> ti : super.getChildren()) {
+            ProjectFileItem pfi = (ProjectFileItem) ti;
+            existingItems.put(pfi.getProjectFile(), ti);
+        }
         List<TreeItem<String>> toAdd = new LinkedList<>();
         for (ProjectFile pf : list) {
-            boolean found = false;
-            for (TreeItem<String> ti : super.getChildren()) {
-                ProjectFileItem pfi = (ProjectFileItem) ti;
-                if (pfi.getProjectFile() == pf) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+            if (null == existingItems.remove(pf)) {
                 if (pf instanceof ErlangProject) {
                     toAdd.add(new ProjectTreeItem((ErlangProject) pf));
                 }
@@ -77,20 +77,10 @@ class ProjectGroupTreeItem extends TreeItem<String> {
                 }
             }
         }
-        for (TreeItem<String> ti : super.getChildren()) {
-            boolean found = false;
-            ProjectFileItem pfi = (ProjectFileItem) ti;
-            for (ProjectFile pf : list) {
-                if (pfi.getProjectFile() == pf) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                toRemove.add(ti);
-            }
-        }
-
+        // Items left are not in collection anymore; removeAll probes the
+        // argument for every child, so it must be a set, not a map view
+        Set<TreeItem<String>> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(existingItems.values());
         super.getChildren().removeAll(toRemove);
         super.getChildren().addAll(toAdd);
     }
@@ -28,6 +28,7 @@ public class Interpreter extends CommandProcessor {
     private IOHelper stderrHandler;
     private boolean justStarted = true;
     private Boolean pauseSupervisor = Boolean.FALSE;
+    private final Object processStarted = new Object();
 
 
     public Interpreter(final String workspaceDir, final String[] commandLineArgs) {
@@ -39,7 +40,11 @@ public class Interpreter extends CommandProcessor {
 
     public void start() {
         try {
-            process = processBuilder.start();
+            Process newProcess = processBuilder.start();
+            synchronized (processStarted) {
+                process = newProcess;
+                processStarted.notifyAll();
+            }
             justStarted = true;
             stdoutHandler = new IOHelper(1, process.getInputStream());
             stderrHandler = new IOHelper(2, process.getErrorStream());
@@ -76,11 +81,13 @@ public class Interpreter extends CommandProcessor {
     }
 
     public void waitForStarted() {
-        while (null==process) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                break;
+        synchronized (processStarted) {
+            while (null==process) {
+                try {
+                    processStarted.wait();
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
         }
     }
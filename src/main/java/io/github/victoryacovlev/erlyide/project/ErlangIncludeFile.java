@@ -34,10 +34,10 @@ public class ErlangIncludeFile extends ProjectFile {
     protected ErlangIncludeFile(File file, ErlangProject parent) {
         super(file, parent);
     }
-    private List<ErlangSourceFile> usages = new LinkedList<>();
 
+    @Override
     public List<ErlangSourceFile> getUsages() {
-        return usages;
+        return getParent().getIncludeUsages(this);
     }
 
     @Override
@@ -23,13 +23,15 @@ import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ErlangProject extends ProjectFile {
 
+    private static final long WATCH_EVENTS_COALESCE_DELAY = 50;
+
 
     public File getAppsDir() {
         return appsDir;
@@ -108,10 +110,17 @@ public class ErlangProject extends ProjectFile {
     private ObservableList<ProjectFile> otherFiles = FXCollections.synchronizedObservableList(FXCollections.observableArrayList());
 //    private ObservableList<ErlangSourceFile> sourceFiles = FXCollections.observableArrayList();
 
+    // Kept in step with sourceFiles and includeFiles to avoid linear searches
+    private final Map<String, ProjectFile> filesByPath = new ConcurrentHashMap<>();
+    private final Map<String, ErlangSourceFile> sourceFilesByModuleName = new ConcurrentHashMap<>();
+    private final Map<String, ErlangIncludeFile> includeFilesByName = new ConcurrentHashMap<>();
+    private final IncludeGraph includeGraph;
+
     public ErlangProject(final String projectRootPath, ErlangProject parent) {
         super(new File(projectRootPath), parent);
         rootDir = file;
         rootDir.mkdirs();
+        includeGraph = new IncludeGraph(new File(rootDir.getAbsolutePath() + "/.erlyide/include_graph.json"));
         rebarConfigFile = new File(rootDir.getAbsolutePath() + "/rebar.config");
 
         if (rebarConfigFile.exists()) {
@@ -142,51 +151,225 @@ public class ErlangProject extends ProjectFile {
         if (depsDir!=null) depsDir.mkdirs();
         if (appsDir!=null) appsDir.mkdirs();
 
-        new Thread(() -> {
+        ListChangeListener<ProjectFile> indexUpdater = change -> {
+            while (change.next()) {
+                for (ProjectFile removed : change.getRemoved()) {
+                    removeFromIndex(removed, removed.getFile().getAbsolutePath());
+                }
+                for (ProjectFile added : change.getAddedSubList()) {
+                    addToIndex(added);
+                }
+            }
+        };
+        sourceFiles.addListener(indexUpdater);
+        includeFiles.addListener(indexUpdater);
+
+        scanForAllFilesChanges();
+        Thread filesWatcher = new Thread(this::watchForFilesChanges, "Project files watcher " + rootDir.getName());
+        filesWatcher.setDaemon(true);
+        filesWatcher.start();
+    }
+
+    private void addToIndex(ProjectFile projectFile) {
+        filesByPath.put(projectFile.getFile().getAbsolutePath(), projectFile);
+        if (projectFile instanceof ErlangSourceFile) {
+            ErlangSourceFile sourceFile = (ErlangSourceFile) projectFile;
+            sourceFilesByModuleName.put(sourceFile.getModuleName(), sourceFile);
+        }
+        else if (projectFile instanceof ErlangIncludeFile) {
+            includeFilesByName.put(projectFile.getFile().getName(), (ErlangIncludeFile) projectFile);
+        }
+    }
+
+    private void removeFromIndex(ProjectFile projectFile, String absolutePath) {
+        filesByPath.remove(absolutePath, projectFile);
+        if (projectFile instanceof ErlangSourceFile) {
+            final String fileName = new File(absolutePath).getName();
+            final String moduleName = fileName.substring(0, fileName.length()-4);
+            sourceFilesByModuleName.remove(moduleName, projectFile);
+        }
+        else if (projectFile instanceof ErlangIncludeFile) {
+            includeFilesByName.remove(new File(absolutePath).getName(), projectFile);
+        }
+    }
+
+    void updateIndexOnRename(ProjectFile projectFile, String oldAbsolutePath) {
+        if (filesByPath.get(oldAbsolutePath) == projectFile) {
+            removeFromIndex(projectFile, oldAbsolutePath);
+            addToIndex(projectFile);
+        }
+        includeGraph.renameFile(oldAbsolutePath, projectFile.getFile().getAbsolutePath());
+        includeGraph.save();
+    }
+
+    public ProjectFile findFileByPath(String absolutePath) {
+        return filesByPath.get(absolutePath);
+    }
+
+    public ErlangSourceFile findSourceFileByModuleName(String moduleName) {
+        return sourceFilesByModuleName.get(moduleName);
+    }
+
+    private void scanForAllFilesChanges() {
+        if (getSrcDir()!=null)
+            scanForSourceFilesChanges(sourceFiles, ".erl", getSrcDir(), ErlangFileType.SourceFile);
+        if (getIncludeDir()!=null)
+            scanForSourceFilesChanges(includeFiles, ".hrl", getIncludeDir(), ErlangFileType.IncludeFile);
+        includeGraph.retainFiles(filesByPath.keySet());
+        includeGraph.save();
+    }
+
+    private void watchForFilesChanges() {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> watchedDirs = new HashMap<>();
+            for (File dir : Arrays.asList(getSrcDir(), getIncludeDir())) {
+                if (dir!=null && !watchedDirs.containsValue(dir.toPath())) {
+                    WatchKey key = dir.toPath().register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+                    watchedDirs.put(key, dir.toPath());
+                }
+            }
+            if (watchedDirs.isEmpty()) {
+                return;
+            }
             while (true) {
-                scanForSourceFilesChanges(sourceFiles, ".erl", getSrcDir(), ErlangFileType.SourceFile);
-                scanForSourceFilesChanges(includeFiles, ".hrl", getIncludeDir(), ErlangFileType.IncludeFile);
-                try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException e) {
-                    break;
+                WatchKey key = watchService.take();
+                // Events coming within a short period (i.e. VCS checkout) are applied at once
+                Set<Path> changedPaths = new LinkedHashSet<>();
+                boolean overflow = false;
+                while (key != null) {
+                    Path dir = watchedDirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                            overflow = true;
+                        }
+                        else if (dir != null) {
+                            changedPaths.add(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(WATCH_EVENTS_COALESCE_DELAY, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    scanForAllFilesChanges();
+                }
+                else {
+                    applyFilesChanges(changedPaths);
                 }
             }
-        }).start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            // Stop watching
+        }
     }
 
-    public void scanForIncludes(ErlangSourceFile erlangSourceFile) {
-        String data = erlangSourceFile.readAll();
-        scanForIncludes(erlangSourceFile, data);
+    private void applyFilesChanges(Set<Path> changedPaths) {
+        for (Path path : changedPaths) {
+            final File f = path.toFile();
+            final File dir = f.getParentFile();
+            final String name = f.getName();
+            if (name.endsWith(".erl") && dir.equals(getSrcDir())) {
+                applyFileChange(sourceFiles, f, ErlangFileType.SourceFile);
+            }
+            else if (name.endsWith(".hrl") && dir.equals(getIncludeDir())) {
+                applyFileChange(includeFiles, f, ErlangFileType.IncludeFile);
+            }
+        }
+        includeGraph.save();
     }
 
-    public void removeSourceFromIncludes(ErlangSourceFile erlangSourceFile) {
-        for (int j=0; j<includeFiles.size(); ++j) {
-            ErlangIncludeFile includeFile = includeFiles.get(j);
-            includeFile.getUsages().remove(erlangSourceFile);
+    private void applyFileChange(ObservableList collection, File f, ErlangFileType fileType) {
+        synchronized (collection) {
+            ProjectFile existing = filesByPath.get(f.getAbsolutePath());
+            // Only the final state matters, file might be created and removed within one batch
+            if (f.exists() && existing == null) {
+                collection.add(wrapFileInContainer(f, fileType));
+            }
+            else if (!f.exists() && existing != null) {
+                removeFromIncludes(existing);
+                collection.remove(existing);
+            }
         }
     }
 
-    public void scanForIncludes(ErlangSourceFile erlangSourceFile, String data) {
+    public void scanForIncludes(ProjectFile projectFile) {
+        final String stamp = IncludeGraph.stampOf(projectFile.getFile());
+        if (!includeGraph.isUpToDate(projectFile.getFile().getAbsolutePath(), stamp)) {
+            scanForIncludes(projectFile, projectFile.readAll(), stamp);
+        }
+    }
+
+    public void removeFromIncludes(ProjectFile projectFile) {
+        includeGraph.removeFile(projectFile.getFile().getAbsolutePath());
+    }
+
+    public void scanForIncludes(ProjectFile projectFile, String data) {
+        scanForIncludes(projectFile, data, IncludeGraph.stampOf(projectFile.getFile()));
+        includeGraph.save();
+    }
+
+    private void scanForIncludes(ProjectFile projectFile, String data, String stamp) {
         List<String> includes = ErlangCompiler.getInstance().scanForIncludeStatements(data);
-        for (ErlangIncludeFile includeFile : includeFiles) {
-            String fullPath = includeFile.getFile().getAbsolutePath();
-            String shortPath = includeFile.getName();
-            if (includes.contains(shortPath) || includes.contains(fullPath)) {
-                includeFile.getUsages().add(erlangSourceFile);
+        includeGraph.setIncludes(projectFile.getFile().getAbsolutePath(), stamp, includes);
+    }
+
+    public Map<String, File> getTransitiveIncludes(ProjectFile projectFile) {
+        // Header name to its file, or to null when header is not a part of project
+        Map<String, File> result = new TreeMap<>();
+        Deque<File> filesToVisit = new ArrayDeque<>();
+        filesToVisit.add(projectFile.getFile());
+        while (!filesToVisit.isEmpty()) {
+            final File includer = filesToVisit.poll();
+            for (String headerName : includeGraph.getIncludedHeaderNames(includer.getAbsolutePath())) {
+                if (!result.containsKey(headerName)) {
+                    final File header = resolveHeader(includer, headerName);
+                    result.put(headerName, header);
+                    if (null != header) {
+                        filesToVisit.add(header);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private File resolveHeader(File includer, String headerName) {
+        // Like epp, directory of including file goes before include directory,
+        // so private headers next to sources are found too
+        final File sibling = new File(includer.getParentFile(), headerName);
+        if (sibling.isFile()) {
+            if (!includeFilesByName.containsKey(headerName) || !sibling.equals(includeFilesByName.get(headerName).getFile())) {
+                scanHeaderForIncludes(sibling);
+            }
+            return sibling;
+        }
+        ErlangIncludeFile includeFile = includeFilesByName.get(headerName);
+        return null != includeFile ? includeFile.getFile() : null;
+    }
+
+    private void scanHeaderForIncludes(File header) {
+        // Headers outside of include directory are not project files, so nobody else scans them
+        final String stamp = IncludeGraph.stampOf(header);
+        if (!includeGraph.isUpToDate(header.getAbsolutePath(), stamp)) {
+            try {
+                includeGraph.setIncludes(header.getAbsolutePath(), stamp,
+                        ErlangCompiler.getInstance().scanForIncludeStatements(ProjectFile.readText(header)));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
 
-    public void scanAllSourcesForInclude(ErlangIncludeFile includeFile) {
-        String fullPath = includeFile.getFile().getAbsolutePath();
-        String shortPath = includeFile.getName();
-        for (ErlangSourceFile sourceFile : sourceFiles) {
-            List<String> includes = ErlangCompiler.getInstance().scanForIncludeStatements(sourceFile.readAll());
-            if (includes.contains(shortPath) || includes.contains(fullPath)) {
-                includeFile.getUsages().add(sourceFile);
+    public List<ErlangSourceFile> getIncludeUsages(ErlangIncludeFile includeFile) {
+        List<ErlangSourceFile> result = new LinkedList<>();
+        for (String path : includeGraph.getDependentSources(includeFile.getFile().getName())) {
+            ProjectFile projectFile = filesByPath.get(path);
+            if (projectFile instanceof ErlangSourceFile) {
+                result.add((ErlangSourceFile) projectFile);
             }
         }
+        return result;
     }
 
     private ProjectFile wrapFileInContainer(File f, ErlangFileType fileType) {
@@ -194,11 +377,11 @@ public class ErlangProject extends ProjectFile {
         switch (fileType) {
             case SourceFile:
                 createdFile = new ErlangSourceFile(f, this);
-                scanForIncludes((ErlangSourceFile)createdFile);
+                scanForIncludes(createdFile);
                 break;
             case IncludeFile:
                 createdFile = new ErlangIncludeFile(f, this);
-                scanAllSourcesForInclude((ErlangIncludeFile)createdFile);
+                scanForIncludes(createdFile);
                 break;
             default:
                 break;
@@ -248,38 +431,21 @@ public class ErlangProject extends ProjectFile {
     private void scanForSourceFilesChanges(ObservableList collection, String suffix, File root, ErlangFileType fileType) {
         synchronized (collection) {
             File[] listOfFiles = root.listFiles(pathname -> pathname.getName().endsWith(suffix));
+            Set<String> listedPaths = new HashSet<>();
+            for (File f : listOfFiles) {
+                listedPaths.add(f.getAbsolutePath());
+            }
             LinkedList<ProjectFile> toRemove = new LinkedList<>();
             LinkedList<ProjectFile> toAdd = new LinkedList<>();
             for (Object obj : collection) {
                 ProjectFile of = (ProjectFile) obj;
-                boolean found = false;
-                final String ofPath = of.getFile().getAbsolutePath();
-                for (File f : listOfFiles) {
-                    final String fPath = f.getAbsolutePath();
-                    if (fPath.equals(ofPath)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    if (of instanceof ErlangSourceFile) {
-                        removeSourceFromIncludes((ErlangSourceFile) of);
-                    }
+                if (!listedPaths.contains(of.getFile().getAbsolutePath())) {
+                    removeFromIncludes(of);
                     toRemove.add(of);
                 }
             }
             for (File f : listOfFiles) {
-                final String fPath = f.getAbsolutePath();
-                boolean found = false;
-                for (Object obj : collection) {
-                    ProjectFile of = (ProjectFile) obj;
-                    final String ofPath = of.getFile().getAbsolutePath();
-                    if (ofPath.equals(fPath)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
+                if (!filesByPath.containsKey(f.getAbsolutePath())) {
                     ProjectFile pf = wrapFileInContainer(f, fileType);
                     toAdd.add(pf);
                 }
@@ -294,8 +460,9 @@ public class ErlangProject extends ProjectFile {
     }
 
     public void removeFile(ProjectFile projectFile) {
+        removeFromIncludes(projectFile);
+        includeGraph.save();
         if (projectFile instanceof ErlangSourceFile) {
-            removeSourceFromIncludes((ErlangSourceFile) projectFile);
             sourceFiles.remove(projectFile);
         }
         else if (projectFile instanceof ErlangIncludeFile) {
@@ -25,15 +25,22 @@ import java.util.regex.Pattern;
 public class ErlangSourceFile extends ProjectFile {
 
     static final Pattern MODULE_NAME_SEARCH_PATTERN;
+    static final Pattern INCLUDE_SEARCH_PATTERN;
 
     static {
         MODULE_NAME_SEARCH_PATTERN = Pattern.compile("^\\s*-module\\((\\S+)\\)\\.", Pattern.MULTILINE);
+        INCLUDE_SEARCH_PATTERN = Pattern.compile("^\\s*-include(_lib)?\\(\\s*\"([^\"]*?)([^\"/]+)\"\\s*\\)\\.", Pattern.MULTILINE);
     }
 
     protected ErlangSourceFile(File file, ErlangProject parent) {
         super(file, parent);
     }
 
+    public String getModuleName() {
+        final String baseName = getFile().getName();
+        return baseName.substring(0, baseName.length()-4);
+    }
+
     @Override
     protected List<ProjectFileChange> preprocessToMatchNewName(String oldName, String newName) {
         String oldModuleName = oldName.substring(0, oldName.length()-4);
@@ -57,5 +64,22 @@ public class ErlangSourceFile extends ProjectFile {
         return changes;
     }
 
+    @Override
+    protected List<ProjectFileChange> preprocessToMatchRenamedUsage(String oldName, String newName) {
+        // Directory part of include path stays as is, only header name is replaced
+        List<ProjectFileChange> changes = new LinkedList<>();
+        Matcher matcher = INCLUDE_SEARCH_PATTERN.matcher(getContents());
+        while (matcher.find()) {
+            if (matcher.group(3).equals(oldName)) {
+                ProjectFileChange change = new ProjectFileChange();
+                change.from = matcher.start(3);
+                change.length = oldName.length();
+                change.replacement = newName;
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
 
 }
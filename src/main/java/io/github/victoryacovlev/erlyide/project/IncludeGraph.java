@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.project;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Which files include which headers, both directions. Headers are matched
+ * by file name, so -include and -include_lib of the same header are
+ * treated alike. Stored in workspace to not rescan unchanged files.
+ */
+public class IncludeGraph {
+    private final File storageFile;
+    private final Map<String, String> stamps = new HashMap<>();
+    private final Map<String, Set<String>> includesByFile = new HashMap<>();
+    private final Map<String, Set<String>> includersByHeaderName = new HashMap<>();
+    private boolean changed = false;
+
+    public IncludeGraph(File storageFile) {
+        this.storageFile = storageFile;
+        load();
+    }
+
+    public static String stampOf(File file) {
+        return file.lastModified() + ":" + file.length();
+    }
+
+    public synchronized boolean isUpToDate(String path, String stamp) {
+        return stamp.equals(stamps.get(path));
+    }
+
+    public synchronized void setIncludes(String path, String stamp, Collection<String> includes) {
+        Set<String> headerNames = new HashSet<>();
+        for (String include : includes) {
+            headerNames.add(new File(include).getName());
+        }
+        stamps.put(path, stamp);
+        if (headerNames.equals(includesByFile.get(path))) {
+            changed = true;
+            return;
+        }
+        removeEdges(path);
+        includesByFile.put(path, headerNames);
+        for (String headerName : headerNames) {
+            includersByHeaderName.computeIfAbsent(headerName, k -> new HashSet<>()).add(path);
+        }
+        changed = true;
+    }
+
+    public synchronized void removeFile(String path) {
+        removeEdges(path);
+        if (null != stamps.remove(path)) {
+            changed = true;
+        }
+    }
+
+    public synchronized void renameFile(String oldPath, String newPath) {
+        Set<String> headerNames = includesByFile.get(oldPath);
+        String stamp = stamps.get(oldPath);
+        removeFile(oldPath);
+        if (null != headerNames) {
+            setIncludes(newPath, null != stamp ? stamp : "", headerNames);
+        }
+    }
+
+    public synchronized void retainFiles(Set<String> paths) {
+        for (String path : new ArrayList<>(stamps.keySet())) {
+            if (!paths.contains(path)) {
+                removeFile(path);
+            }
+        }
+    }
+
+    public synchronized Set<String> getIncludedHeaderNames(String path) {
+        Set<String> headerNames = includesByFile.get(path);
+        return null != headerNames ? new HashSet<>(headerNames) : Collections.emptySet();
+    }
+
+    public synchronized Set<String> getDependentSources(String headerName) {
+        // Walks nested headers, every file is visited once
+        Set<String> result = new LinkedHashSet<>();
+        Set<String> visitedHeaders = new HashSet<>();
+        Deque<String> headersToVisit = new ArrayDeque<>();
+        headersToVisit.add(headerName);
+        visitedHeaders.add(headerName);
+        while (!headersToVisit.isEmpty()) {
+            Set<String> includers = includersByHeaderName.get(headersToVisit.poll());
+            if (null == includers) {
+                continue;
+            }
+            for (String includer : includers) {
+                if (includer.endsWith(".erl")) {
+                    result.add(includer);
+                }
+                else {
+                    final String includerName = new File(includer).getName();
+                    if (visitedHeaders.add(includerName)) {
+                        headersToVisit.add(includerName);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void removeEdges(String path) {
+        Set<String> headerNames = includesByFile.remove(path);
+        if (null == headerNames) {
+            return;
+        }
+        for (String headerName : headerNames) {
+            Set<String> includers = includersByHeaderName.get(headerName);
+            if (null != includers) {
+                includers.remove(path);
+                if (includers.isEmpty()) {
+                    includersByHeaderName.remove(headerName);
+                }
+            }
+        }
+        changed = true;
+    }
+
+    private void load() {
+        if (!storageFile.exists()) {
+            return;
+        }
+        try {
+            String data = new String(Files.readAllBytes(storageFile.toPath()), StandardCharsets.UTF_8);
+            JSONObject jsonFiles = new JSONObject(data).getJSONObject("files");
+            for (String path : jsonFiles.keySet()) {
+                JSONObject jsonFile = jsonFiles.getJSONObject(path);
+                JSONArray jsonIncludes = jsonFile.getJSONArray("includes");
+                List<String> includes = new ArrayList<>(jsonIncludes.length());
+                for (int i=0; i<jsonIncludes.length(); ++i) {
+                    includes.add(jsonIncludes.getString(i));
+                }
+                setIncludes(path, jsonFile.getString("stamp"), includes);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        changed = false;
+    }
+
+    public synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        JSONObject jsonFiles = new JSONObject();
+        for (Map.Entry<String, String> entry : stamps.entrySet()) {
+            JSONObject jsonFile = new JSONObject();
+            jsonFile.put("stamp", entry.getValue());
+            Set<String> headerNames = includesByFile.get(entry.getKey());
+            jsonFile.put("includes", new JSONArray(null != headerNames ? headerNames : Collections.emptySet()));
+            jsonFiles.put(entry.getKey(), jsonFile);
+        }
+        JSONObject root = new JSONObject();
+        root.put("files", jsonFiles);
+        try {
+            storageFile.getParentFile().mkdirs();
+            Files.write(storageFile.toPath(), root.toString().getBytes(StandardCharsets.UTF_8));
+            changed = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -23,14 +23,33 @@ import javafx.event.Event;
 import javafx.event.EventTarget;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 public abstract class ProjectFile {
+    private static final long MAPPED_READ_THRESHOLD = 8 * 1024 * 1024;
+    private static final String WRITER_THREAD_NAME = "Project file writer";
+    private static final ExecutorService writeExecutor = Executors.newFixedThreadPool(
+            Integer.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+        Thread thread = new Thread(runnable, WRITER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
     private SimpleStringProperty name;
 
-    protected File file;
+    protected volatile File file;
     private final ErlangProject parent;
     private EditingInterface editor = null;
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
 
     protected ProjectFile(File file, ErlangProject parent) {
         this.file = file;
@@ -44,42 +63,63 @@ public abstract class ProjectFile {
 
     private String rename(String newName, boolean preprocessFile, boolean updateUsages) {
         String oldName = file.getName();
-        File f = new File(file.getParentFile().getAbsolutePath() + "/" + newName);
-        file.renameTo(f);
-        file = f;
+        String oldPath = file.getAbsolutePath();
+        // Usages are found by old name, so before index knows about new one
+        List<? extends ProjectFile> usages = updateUsages ? getUsages() : Collections.<ProjectFile>emptyList();
+        final File oldFile = file;
+        final File f = new File(file.getParentFile().getAbsolutePath() + "/" + newName);
+        synchronized (this) {
+            // File is moved after pending writes to old name, and before any write to the new one
+            file = f;
+            enqueueWrite(() -> oldFile.renameTo(f));
+        }
+        if (parent != null) {
+            parent.updateIndexOnRename(this, oldPath);
+        }
         if (preprocessFile) {
-            List<ProjectFileChange> changeList = preprocessToMatchNewName(oldName, newName);
-            if (! changeList.isEmpty()) {
-                applyChanges(changeList);
-            }
+            applyChanges(() -> preprocessToMatchNewName(oldName, newName));
+        }
+        for (ProjectFile usage : usages) {
+            usage.applyChanges(() -> usage.preprocessToMatchRenamedUsage(oldName, newName));
         }
         return file.getName();
     }
 
-    private void applyChanges(List<ProjectFileChange> changeList) {
+    private void applyChanges(Supplier<List<ProjectFileChange>> changes) {
         if (editor != null) {
-            editor.applyChanges(changeList);
+            List<ProjectFileChange> changeList = changes.get();
+            if (! changeList.isEmpty()) {
+                editor.applyChanges(changeList);
+            }
         }
         else {
-            String source = getContents();
-            StringBuilder builder = new StringBuilder();
-            int prevPos = 0;
-            for (int i=0; i<changeList.size(); ++i) {
-                ProjectFileChange change = changeList.get(i);
-                int changeStart = change.from;
+            // Contents on disk are known only after pending writes and renames of this file
+            enqueueWrite(() -> {
+                List<ProjectFileChange> changeList = changes.get();
+                if (! changeList.isEmpty()) {
+                    writeNow(file, applyChanges(readAll(), changeList));
+                }
+            });
+        }
+    }
 
-                builder.append(source.substring(prevPos, changeStart));
+    private static String applyChanges(String source, List<ProjectFileChange> changeList) {
+        StringBuilder builder = new StringBuilder();
+        int prevPos = 0;
+        for (int i=0; i<changeList.size(); ++i) {
+            ProjectFileChange change = changeList.get(i);
+            int changeStart = change.from;
 
-                int changeLength = change.length;
-                String replacement = change.replacement;
-                builder.append(replacement);
+            builder.append(source.substring(prevPos, changeStart));
 
-                prevPos = changeStart + changeLength;
-            }
-            builder.append(source.substring(prevPos));
-            String newContents = builder.toString();
-            write(newContents);
+            int changeLength = change.length;
+            String replacement = change.replacement;
+            builder.append(replacement);
+
+            prevPos = changeStart + changeLength;
         }
+        builder.append(source.substring(prevPos));
+        return builder.toString();
     }
 
     protected String getContents() {
@@ -99,6 +139,14 @@ public abstract class ProjectFile {
         return Collections.EMPTY_LIST;
     }
 
+    protected List<ProjectFileChange> preprocessToMatchRenamedUsage(String oldName, String newName) {
+        return Collections.EMPTY_LIST;
+    }
+
+    protected List<? extends ProjectFile> getUsages() {
+        return Collections.emptyList();
+    }
+
     public File getFile() {
         return file;
     }
@@ -113,16 +161,18 @@ public abstract class ProjectFile {
     }
 
     public String readAll() {
+        // Reading needs pending writes and renames done, nothing else waits for them
+        CompletableFuture<Void> pendingWrite;
+        synchronized (this) {
+            pendingWrite = lastWrite;
+        }
+        if (!isWriterThread()) {
+            pendingWrite.handle((result, error) -> (Void) null).join();
+        }
         String result = "";
         if (file!=null && file.exists()) {
             try {
-                FileInputStream fis = new FileInputStream(file);
-                Scanner s = new Scanner(fis);
-                s.useDelimiter("\\A");
-                result = s.next();
-                fis.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+                result = readText(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -130,18 +180,93 @@ public abstract class ProjectFile {
         return result;
     }
 
+    public static String readText(File file) throws IOException {
+        // Sources are always UTF-8, huge generated ones are decoded straight from mapped memory
+        final long size = file.length();
+        if (size < MAPPED_READ_THRESHOLD) {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
     public void write(String contents) {
-        FileOutputStream fs = null;
         try {
-            fs = new FileOutputStream(file);
-            OutputStreamWriter writer = new OutputStreamWriter(fs, "UTF-8");
-            BufferedWriter bufferedWriter = new BufferedWriter(writer);
-            bufferedWriter.write(contents);
-            bufferedWriter.close();
-        } catch (FileNotFoundException e) {
+            writeAsync(contents).join();
+        } catch (CompletionException e) {
             e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
+        }
+    }
+
+    public synchronized CompletableFuture<Void> writeAsync(String contents) {
+        // Target is taken now, so a later rename does not redirect this write
+        final File target = file;
+        return enqueueWrite(() -> writeNow(target, contents));
+    }
+
+    private static boolean isWriterThread() {
+        // Tasks of write queue read the file themselves, they must not wait for their own future
+        return Thread.currentThread().getName().equals(WRITER_THREAD_NAME);
+    }
+
+    private synchronized CompletableFuture<Void> enqueueWrite(Runnable task) {
+        // Writes of the same file go one after another, different files are written in parallel
+        lastWrite = lastWrite
+                .handle((result, error) -> (Void) null)
+                .thenRunAsync(task, writeExecutor);
+        return lastWrite;
+    }
+
+    private static void writeNow(File file, String contents) {
+        // New contents go to temporary file first, so crash in the middle never leaves a half written file
+        Path temporary = null;
+        try {
+            // Symbolic link must stay a link, so the file it points to is replaced
+            final Path target = Files.exists(file.toPath()) ? file.toPath().toRealPath() : file.toPath();
+            temporary = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            copyPermissions(target, temporary);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(target.getParent());
+        } catch (IOException e) {
             e.printStackTrace();
+            if (null != temporary) {
+                temporary.toFile().delete();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        // Rename itself is durable only after directory entry is flushed
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can not be opened or flushed on some platforms, e.g. Windows
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) {
+        // Temporary files are private to owner, saved file must keep permissions it had
+        if (!Files.exists(from)) {
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,162 @@
+%%
+ % Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ %
+ %    Licensed under the Apache License, Version 2.0 (the "License");
+ %    you may not use this file except in compliance with the License.
+ %    You may obtain a copy of the License at
+ %
+ %        http://www.apache.org/licenses/LICENSE-2.0
+ %
+ %    Unless required by applicable law or agreed to in writing, software
+ %    distributed under the License is distributed on an "AS IS" BASIS,
+ %    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ %    See the License for the specific language governing permissions and
+ %    limitations under the License.
+ %
+
+-module(erlide_builder).
+
+%% API
+-export([compile_files/1, compile_file/2, compile_source/3, helper_info/0]).
+
+-type formatted_messages() :: [{binary(), [{integer(), binary()}]}].
+-type compile_result() :: {ok, module(), formatted_messages()} | {error, formatted_messages(), formatted_messages()}.
+-type source_compile_result() :: {ok, module(), binary(), formatted_messages()} | {error, formatted_messages(), formatted_messages()}.
+
+%% Compiles files concurrently, one process per scheduler at most.
+%% Results are returned in the same order as files requested.
+-spec compile_files([{file:filename(), [compile:option()]}]) -> [compile_result()].
+compile_files(Files) ->
+  Indexed = lists:zip(lists:seq(1, length(Files)), Files),
+  Workers = erlang:system_info(schedulers_online),
+  Results = compile_loop(Indexed, make_ref(), Workers, #{}, []),
+  [Result || {_, Result} <- lists:keysort(1, Results)].
+
+
+%% Workers are monitored, so a worker killed before it replies gives an
+%% error for its file instead of waiting forever.
+compile_loop([], _Ref, _Free, Workers, Results) when map_size(Workers) =:= 0 ->
+  Results;
+compile_loop([{Index, {File, Options}} | Rest], Ref, Free, Workers, Results) when Free > 0 ->
+  Parent = self(),
+  {Pid, Monitor} = spawn_monitor(fun() -> Parent ! {Ref, self(), compile_file(File, Options)} end),
+  compile_loop(Rest, Ref, Free - 1, Workers#{Pid => {Monitor, Index, File}}, Results);
+compile_loop(Pending, Ref, Free, Workers, Results) ->
+  receive
+    {Ref, Pid, Result} ->
+      {Monitor, Index, _} = maps:get(Pid, Workers),
+      erlang:demonitor(Monitor, [flush]),
+      compile_loop(Pending, Ref, Free + 1, maps:remove(Pid, Workers), [{Index, Result} | Results]);
+    {'DOWN', _, process, Pid, Reason} ->
+      case maps:find(Pid, Workers) of
+        {ok, {_, Index, File}} ->
+          Error = file_error(File, "compiler process died: ~tp", [Reason]),
+          compile_loop(Pending, Ref, Free + 1, maps:remove(Pid, Workers), [{Index, Error} | Results]);
+        error ->
+          compile_loop(Pending, Ref, Free, Workers, Results)
+      end
+  end.
+
+
+%% Same as compile:file/2, but messages are already formatted,
+%% so no extra calls are required to show them.
+-spec compile_file(file:filename(), [compile:option()]) -> compile_result().
+compile_file(File, Options) ->
+  try compile:file(File, Options) of
+    {ok, Module, Warnings} -> {ok, Module, format_messages(Warnings)};
+    {error, Errors, Warnings} -> {error, format_messages(Errors), format_messages(Warnings)};
+    error -> file_error(File, "compiler failed on ~ts", [File]);
+    Other -> file_error(File, "unexpected compiler result: ~tp", [Other])
+  catch
+    Class:Reason -> file_error(File, "compiler crashed: ~tp:~tp", [Class, Reason])
+  end.
+
+
+%% Compiles module text as if it was saved to File, but without touching
+%% the file itself. Returns object code, so nothing is written to disk too.
+-spec compile_source(file:filename(), binary(), [compile:option()]) -> source_compile_result().
+compile_source(File, Source, Options) ->
+  try preprocess_source(File, Source, Options) of
+    {ok, Forms} ->
+      case compile:forms(Forms, [binary, {source, File} | Options]) of
+        {ok, Module, Binary, Warnings} -> {ok, Module, Binary, format_messages(Warnings)};
+        {error, Errors, Warnings} -> {error, format_messages(Errors), format_messages(Warnings)};
+        error -> file_error(File, "compiler failed on ~ts", [File]);
+        Other -> file_error(File, "unexpected compiler result: ~tp", [Other])
+      end;
+    {error, Reason} ->
+      file_error(File, "~ts", [file:format_error(Reason)])
+  catch
+    Class:Reason -> file_error(File, "compiler crashed: ~tp:~tp", [Class, Reason])
+  end.
+
+
+%% Failure not described by compiler messages is shown as error of the whole file
+file_error(File, Format, Args) ->
+  {error, [{to_binary(File), [{0, to_binary(io_lib:format(Format, Args))}]}], []}.
+
+
+%% Editor text goes to a temporary file, so epp reads it the usual way;
+%% source_name keeps the real file name for -file attribute and ?FILE.
+%% The file gets its own directory, so only the real source directory
+%% is searched for headers included by relative name.
+preprocess_source(File, Source, Options) ->
+  TempDir = filename:join(temp_dir(), "erlide_" ++ integer_to_list(erlang:unique_integer([positive]))),
+  TempFile = filename:join(TempDir, filename:basename(File)),
+  try
+    ok = filelib:ensure_dir(TempFile),
+    ok = file:write_file(TempFile, Source),
+    Includes = [filename:dirname(File), "." | [Dir || {i, Dir} <- Options]],
+    Macros = [Name || {d, Name} <- Options] ++ [{Name, Value} || {d, Name, Value} <- Options],
+    epp:parse_file(TempFile, [{includes, Includes}, {macros, Macros}, {source_name, File}])
+  after
+    file:delete(TempFile),
+    file:del_dir(TempDir)
+  end.
+
+
+temp_dir() ->
+  case {os:getenv("TMPDIR"), os:getenv("TEMP")} of
+    {false, false} -> "/tmp";
+    {false, Dir} -> Dir;
+    {Dir, _} -> Dir
+  end.
+
+
+-spec format_messages([{file:filename(), [term()]}]) -> formatted_messages().
+format_messages(MessagesPerFile) ->
+  [{to_binary(File), [format_message(Message) || Message <- Messages]} || {File, Messages} <- MessagesPerFile].
+
+
+-spec format_message(term()) -> {integer(), binary()}.
+format_message({Location, Module, Description} = Message) ->
+  try
+    {location_line(Location), to_binary(Module:format_error(Description))}
+  catch
+    _:_ -> {location_line(Location), to_binary(io_lib:format("~tp", [Message]))}
+  end;
+format_message(Message) ->
+  {0, to_binary(io_lib:format("~tp", [Message]))}.
+
+
+location_line(Line) when is_integer(Line) -> Line;
+location_line({Line, _Column}) when is_integer(Line) -> Line;
+location_line(_) -> 0.
+
+
+to_binary(Chars) ->
+  case unicode:characters_to_binary(Chars) of
+    Binary when is_binary(Binary) -> Binary;
+    _ -> unicode:characters_to_binary(io_lib:format("~tp", [Chars]))
+  end.
+
+
+-type name() :: atom().
+-type start_function() :: 'none' | atom().
+-type version_major() :: integer().
+-type version_minor() :: integer().
+-type version_patch() :: integer().
+-type version() :: {version_major(), version_minor(), version_patch()}.
+
+-spec helper_info() -> {ok, name(), version(), start_function()}.
+helper_info() ->  {ok, ?MODULE, {0,3,0}, none}.
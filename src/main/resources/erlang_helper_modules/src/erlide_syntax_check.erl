@@ -17,44 +17,300 @@
 -module(erlide_syntax_check).
 
 %% API
--export([check_for_errors_and_warnings/2, helper_info/0]).
+-export([check_for_errors_and_warnings/2, scan_lines/1, start/0, helper_info/0]).
+
+%% Per form parse and lint results, shared by all files checked
+-define(CACHE, erlide_syntax_check_cache).
+-define(CACHE_LIMIT, 50000).
 
 -type token() :: erl_scan:token().
 -type level() :: 'error' | 'warning'.
--type location() :: integer() | {integer(), integer()}.
+-type position() :: {integer(), integer()}.
+-type range() :: {position(), position()}.
 -type message() :: nonempty_string().
--type error_information() :: { location(), level(), message() }.
+-type error_information() :: { range(), level(), message() }.
+-type line_number() :: pos_integer().
+-type scan_result() :: {ok, [token()]} | {error, term()}.
+%% Form tokens are located relative to form first line, so the same form
+%% moved up or down by an edit above it still has the same hash.
+-type form() :: #{base => line_number(), hash => binary(), tokens => [token()]}.
+
+%% Creates cache table owned by a process of its own, so the table
+%% outlives RPC process calling this.
+-spec start() -> ok | {error, term()}.
+start() ->
+  case ets:info(?CACHE) of
+    undefined ->
+      Parent = self(),
+      Owner = spawn(fun() ->
+        ets:new(?CACHE, [named_table, public, set, {read_concurrency, true}]),
+        Parent ! {self(), ready},
+        receive stop -> ok end
+      end),
+      receive {Owner, ready} -> ok after 5000 -> {error, timeout} end;
+    _ ->
+      ok
+  end.
+
 
 -spec check_for_errors_and_warnings(string(), string()) -> [error_information()].
 check_for_errors_and_warnings(Input, FileName) ->
-  ScanResult = erl_scan:string(Input),
+  ScanResult = erl_scan:string(Input, {1, 1}, [text]),
   case ScanResult of
     {error, {ErrLoc, ErrMod, ErrDesc}, _} -> [
-      {ErrLoc, error, ErrMod:format_error(ErrDesc)}
+      {point_range(ErrLoc), error, lists:flatten(ErrMod:format_error(ErrDesc))}
     ];
     {ok, Tokens, _} -> process_tokens_check(Input, Tokens, FileName)
   end.
 
 
+-spec scan_lines([{line_number(), string()}]) -> [scan_result()].
+scan_lines(Lines) ->
+  [scan_line(Text, LineNo) || {LineNo, Text} <- Lines].
+
+
+-spec scan_line(string(), line_number()) -> scan_result().
+scan_line(Text, LineNo) ->
+  Options = [return_white_spaces, return_comments],
+  case erl_scan:string(Text, {LineNo, 1}, Options) of
+    {ok, Tokens, _} -> {ok, [resolve_reserved_word(Token) || Token <- Tokens]};
+    {error, ErrorInfo, _} -> {error, ErrorInfo}
+  end.
+
+
+-spec resolve_reserved_word(token()) -> token().
+resolve_reserved_word({Category, Location} = Token) ->
+  case erl_scan:reserved_word(Category) of
+    true -> {reserved_word, Location, Category};
+    false -> Token
+  end;
+resolve_reserved_word(Token) ->
+  Token.
+
+
 -spec process_tokens_check(string(), [token()], string()) -> [error_information()].
 process_tokens_check(Input, Tokens, FileName) ->
-  process_base_check(Tokens, FileName) ++
-  process_extra_check(Input, Tokens, FileName).
-
-
--spec process_base_check([token()], string()) -> [error_information()].
-process_base_check(Tokens, _FileName) ->
-  ParseResult = erl_parse:parse_form(Tokens),
-  case ParseResult of
-    {ok, _} -> [];
-    {Level, {ErrLoc, ErrMod, ErrDesc}} -> [
-      {ErrLoc, Level, lists:flatten(ErrMod:format_error(ErrDesc))}
-    ]
+  Forms = [make_form(FormTokens) || FormTokens <- split_forms(Tokens, [], [])],
+  process_base_check(Forms, FileName) ++
+  process_extra_check(Input, Forms, FileName).
+
+
+%% Parse errors, each form is parsed only once while its text stays the same.
+-spec process_base_check([form()], string()) -> [error_information()].
+process_base_check(Forms, _FileName) ->
+  lists:append([shift_ranges(Errors, Base) ||
+    #{base := Base} = Form <- Forms, {error, Errors} <- [parse_form(Form)]]).
+
+
+%% Lint errors and warnings. Each form is linted alone together with record
+%% definitions of module, so only changed forms are linted again.
+%% Checks requiring whole module, like undefined local functions, are left
+%% to compiler.
+-spec process_extra_check(string(), [form()], string()) -> [error_information()].
+process_extra_check(_Input, Forms, FileName) ->
+  HasIncludes = lists:any(fun is_include_form/1, Forms),
+  Records = [{Hash, Parsed} || #{hash := Hash} = Form <- Forms, {ok, {attribute, _, record, _} = Parsed} <- [parse_form(Form)]],
+  ContextHash = erlang:md5(term_to_binary({HasIncludes, [Hash || {Hash, _} <- Records]})),
+  lists:append([shift_ranges(lint_form(Form, Parsed, Records, ContextHash, HasIncludes, FileName), Base) ||
+    #{base := Base} = Form <- Forms, {ok, Parsed} <- [parse_form(Form)]]).
+
+
+-spec split_forms([token()], [token()], [[token()]]) -> [[token()]].
+split_forms([], [], Forms) ->
+  lists:reverse(Forms);
+split_forms([], Current, Forms) ->
+  lists:reverse([lists:reverse(Current) | Forms]);
+split_forms([{dot, _} = Dot | Rest], Current, Forms) ->
+  split_forms(Rest, [], [lists:reverse([Dot | Current]) | Forms]);
+split_forms([Token | Rest], Current, Forms) ->
+  split_forms(Rest, [Token | Current], Forms).
+
+
+-spec make_form([token()]) -> form().
+make_form([First | _] = Tokens) ->
+  {Base, _} = token_position(First),
+  Relative = [relocate(Token, Base) || Token <- Tokens],
+  Key = [{erl_scan:category(T), token_position(T), erl_scan:symbol(T)} || T <- Relative],
+  #{base => Base, hash => erlang:md5(term_to_binary(Key)), tokens => Relative}.
+
+
+relocate(Token, Base) ->
+  Anno = element(2, Token),
+  {Line, Column} = token_position(Token),
+  setelement(2, Token, erl_anno:set_location({Line - Base + 1, Column}, Anno)).
+
+
+-spec parse_form(form()) -> {ok, erl_parse:abstract_form()} | {error, [error_information()]} | skip.
+parse_form(#{hash := Hash, tokens := Tokens}) ->
+  cached({parse, Hash}, fun() ->
+    case is_preprocessor_form(Tokens) of
+      true ->
+        skip;
+      false ->
+        case erl_parse:parse_form(replace_macros(Tokens)) of
+          {ok, Parsed} -> {ok, Parsed};
+          {error, ErrorInfo} -> {error, [error_information(ErrorInfo, error, Tokens)]}
+        end
+    end
+  end).
+
+
+-spec lint_form(form(), erl_parse:abstract_form(), [{binary(), erl_parse:abstract_form()}], binary(), boolean(), string()) ->
+  [error_information()].
+lint_form(_Form, {attribute, _, Name, _}, _Records, _ContextHash, _HasIncludes, _FileName)
+    when Name =:= module; Name =:= behaviour; Name =:= behavior; Name =:= on_load; Name =:= compile ->
+  % These refer to functions of module, so only compiler can check them
+  [];
+lint_form(#{hash := Hash, tokens := Tokens}, Parsed, Records, ContextHash, HasIncludes, FileName) ->
+  cached({lint, Hash, ContextHash}, fun() ->
+    % Context goes under a file name of its own, so its messages are not taken
+    Context = [Record || {RecordHash, Record} <- Records, RecordHash =/= Hash],
+    Module = [{attribute, 1, file, {"erlide_lint_context", 1}},
+              {attribute, 1, module, erlide_lint_form}] ++
+             Context ++
+             [{attribute, 1, file, {FileName, 1}}, Parsed, {eof, 1}],
+    try erl_lint:module(Module, FileName, [return_errors, return_warnings]) of
+      {ok, Warnings} ->
+        lint_messages(Warnings, warning, FileName, HasIncludes, Tokens);
+      {error, Errors, Warnings} ->
+        lint_messages(Errors, error, FileName, HasIncludes, Tokens) ++
+        lint_messages(Warnings, warning, FileName, HasIncludes, Tokens)
+    catch
+      Class:Reason ->
+        % Not a problem of the code, but it must not pass for clean form either
+        error_logger:warning_msg("erlide_syntax_check: lint of ~ts failed: ~p:~p~n",
+                                 [FileName, Class, Reason]),
+        [{token_range(token_position(hd(Tokens)), Tokens), warning,
+          lists:flatten(io_lib:format("lint failed: ~tp:~tp", [Class, Reason]))}]
+    end
+  end).
+
+
+lint_messages(MessagesPerFile, Level, FileName, HasIncludes, Tokens) ->
+  [error_information(ErrorInfo, Level, Tokens) ||
+    {File, ErrorInfos} <- MessagesPerFile, File =:= FileName,
+    {_, _, Description} = ErrorInfo <- ErrorInfos,
+    not is_whole_module_check(Description, HasIncludes)].
+
+
+%% Form alone can not tell anything about these
+is_whole_module_check({undefined_function, _}, _) -> true;
+is_whole_module_check({spec_fun_undefined, _}, _) -> true;
+is_whole_module_check({undefined_type, _}, _) -> true;
+is_whole_module_check({unused_function, _}, _) -> true;
+is_whole_module_check({unused_type, _}, _) -> true;
+is_whole_module_check({unused_record, _}, _) -> true;
+is_whole_module_check({undefined_record, Name}, HasIncludes) -> HasIncludes orelse is_macro_name(Name);
+is_whole_module_check({undefined_field, Name, _}, HasIncludes) -> HasIncludes orelse is_macro_name(Name);
+is_whole_module_check({undefined_behaviour_func, _, _}, _) -> true;
+is_whole_module_check({undefined_behaviour_func, _, _, _}, _) -> true;
+is_whole_module_check({undefined_on_load, _}, _) -> true;
+is_whole_module_check({bad_inline, _}, _) -> true;
+is_whole_module_check({bad_nowarn_unused_function, _}, _) -> true;
+is_whole_module_check({bad_nowarn_bif_clash, _}, _) -> true;
+is_whole_module_check(_, _) -> false.
+
+
+is_macro_name(Name) when is_atom(Name) ->
+  case atom_to_list(Name) of
+    [$? | _] -> true;
+    _ -> false
+  end;
+is_macro_name(_) ->
+  false.
+
+
+is_include_form(#{tokens := [{'-', _}, {atom, _, Name} | _]}) ->
+  Name =:= include orelse Name =:= include_lib;
+is_include_form(_) ->
+  false.
+
+
+is_preprocessor_form([{'-', _}, {atom, _, Name} | _]) ->
+  lists:member(Name, [define, undef, ifdef, ifndef, else, endif, 'if', elif, include, include_lib]);
+is_preprocessor_form([{'-', _}, {Name, _} | _]) ->
+  % Reserved words like 'if' come as categories of their own
+  lists:member(Name, ['if', 'else']);
+is_preprocessor_form(_) ->
+  false.
+
+
+%% Macros are not expanded, so they are replaced by atoms and calls
+%% named after them to keep form parseable.
+replace_macros([{'?', Anno}, {'?', _}, {_, _, Name} | Rest]) ->
+  [{string, Anno, "??" ++ to_list(Name)} | replace_macros(Rest)];
+replace_macros([{'?', Anno}, {Category, _, Name} | Rest]) when Category =:= atom; Category =:= var ->
+  [{atom, Anno, list_to_atom("?" ++ to_list(Name))} | replace_macros(Rest)];
+replace_macros([Token | Rest]) ->
+  [Token | replace_macros(Rest)];
+replace_macros([]) ->
+  [].
+
+
+to_list(Name) when is_atom(Name) -> atom_to_list(Name);
+to_list(Name) when is_list(Name) -> Name.
+
+
+-spec error_information({term(), module(), term()}, level(), [token()]) -> error_information().
+error_information({Location, Module, Description}, Level, Tokens) ->
+  Message = try lists:flatten(Module:format_error(Description))
+            catch _:_ -> lists:flatten(io_lib:format("~tp", [Description]))
+            end,
+  {token_range(Location, Tokens), Level, Message}.
+
+
+%% Range of the token at location, or an empty range if there is no such token
+token_range(Location, Tokens) ->
+  {Line, Column} = Start = location_position(Location),
+  case [T || T <- Tokens, token_position(T) =:= Start] of
+    [Token | _] ->
+      case erl_scan:text(Token) of
+        Text when is_list(Text) -> {Start, {Line, Column + length(Text)}};
+        _ -> {Start, Start}
+      end;
+    [] ->
+      {Start, Start}
+  end.
+
+
+point_range(Location) ->
+  Position = location_position(Location),
+  {Position, Position}.
+
+
+location_position({Line, Column}) when is_integer(Line), is_integer(Column) -> {Line, Column};
+location_position(Line) when is_integer(Line) -> {Line, 1};
+location_position(Anno) ->
+  case {erl_anno:line(Anno), erl_anno:column(Anno)} of
+    {Line, Column} when is_integer(Column) -> {Line, Column};
+    {Line, _} -> {Line, 1}
   end.
 
--spec process_extra_check(string(), [token()], string()) -> [error_information()].
-process_extra_check(_Input, _Tokens, _FileName) ->
-  []. % TODO implement me some time
+
+token_position(Token) ->
+  location_position(erl_scan:location(Token)).
+
+
+shift_ranges(Errors, Base) ->
+  [{{{L1 + Base - 1, C1}, {L2 + Base - 1, C2}}, Level, Message} ||
+    {{{L1, C1}, {L2, C2}}, Level, Message} <- Errors].
+
+
+%% Computes value unless it is known already. Without cache table,
+%% e.g. when helper was not started, values are always computed.
+cached(Key, Compute) ->
+  case catch ets:lookup(?CACHE, Key) of
+    [{Key, Value}] ->
+      Value;
+    _ ->
+      Value = Compute(),
+      case catch ets:info(?CACHE, size) of
+        Size when is_integer(Size), Size >= ?CACHE_LIMIT -> catch ets:delete_all_objects(?CACHE);
+        _ -> ok
+      end,
+      catch ets:insert(?CACHE, {Key, Value}),
+      Value
+  end.
 
 -type name() :: atom().
 -type start_function() :: 'none' | atom().
@@ -64,4 +320,4 @@ process_extra_check(_Input, _Tokens, _FileName) ->
 -type version() :: {version_major(), version_minor(), version_patch()}.
 
 -spec helper_info() -> {ok, name(), version(), start_function()}.
-helper_info() ->  {ok, ?MODULE, {0,1,0}, none}.
\ No newline at end of file
+helper_info() ->  {ok, ?MODULE, {0,3,0}, start}.
\ No newline at end of file
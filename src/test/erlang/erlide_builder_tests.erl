@@ -0,0 +1,108 @@
+%%
+ % Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ %
+ %    Licensed under the Apache License, Version 2.0 (the "License");
+ %    you may not use this file except in compliance with the License.
+ %    You may obtain a copy of the License at
+ %
+ %        http://www.apache.org/licenses/LICENSE-2.0
+ %
+ %    Unless required by applicable law or agreed to in writing, software
+ %    distributed under the License is distributed on an "AS IS" BASIS,
+ %    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ %    See the License for the specific language governing permissions and
+ %    limitations under the License.
+ %
+
+-module(erlide_builder_tests).
+
+-include_lib("eunit/include/eunit.hrl").
+
+%% Module text is compiled as if saved to Dir/Name, then loaded and called
+compile_and_call(Dir, Name, Lines, Options) ->
+  File = filename:join(Dir, Name),
+  Source = unicode:characters_to_binary(string:join(Lines, "\n") ++ "\n"),
+  {ok, Module, Binary, _} = erlide_builder:compile_source(File, Source, Options),
+  {module, Module} = code:load_binary(Module, File, Binary),
+  Result = Module:value(),
+  code:purge(Module),
+  code:delete(Module),
+  Result.
+
+with_dir(Test) ->
+  Dir = filename:join(erlide_builder_tests_tmp(), integer_to_list(erlang:unique_integer([positive]))),
+  ok = filelib:ensure_dir(filename:join(Dir, "x")),
+  try Test(Dir)
+  after [file:delete(F) || F <- filelib:wildcard(filename:join(Dir, "*"))], file:del_dir(Dir)
+  end.
+
+erlide_builder_tests_tmp() ->
+  case os:getenv("TMPDIR") of
+    false -> "/tmp";
+    Dir -> Dir
+  end.
+
+include_next_to_source_test() ->
+  with_dir(fun(Dir) ->
+    ok = file:write_file(filename:join(Dir, "values.hrl"), "-define(VALUE, 42).\n"),
+    ?assertEqual(42, compile_and_call(Dir, "inc_test_mod.erl",
+                                      ["-module(inc_test_mod).",
+                                       "-export([value/0]).",
+                                       "-include(\"values.hrl\").",
+                                       "value() -> ?VALUE."], []))
+  end).
+
+include_from_option_dir_test() ->
+  with_dir(fun(Dir) ->
+    IncludeDir = filename:join(Dir, "include"),
+    ok = filelib:ensure_dir(filename:join(IncludeDir, "x")),
+    ok = file:write_file(filename:join(IncludeDir, "other.hrl"), "-define(OTHER, other).\n"),
+    try
+      ?assertEqual(other, compile_and_call(Dir, "inc_opt_test_mod.erl",
+                                           ["-module(inc_opt_test_mod).",
+                                            "-export([value/0]).",
+                                            "-include(\"other.hrl\").",
+                                            "value() -> ?OTHER."], [{i, IncludeDir}]))
+    after
+      file:delete(filename:join(IncludeDir, "other.hrl")),
+      file:del_dir(IncludeDir)
+    end
+  end).
+
+ifdef_test() ->
+  with_dir(fun(Dir) ->
+    Lines = ["-module(ifdef_test_mod).",
+             "-export([value/0]).",
+             "-ifdef(DEBUG).",
+             "value() -> debug.",
+             "-else.",
+             "value() -> release.",
+             "-endif."],
+    ?assertEqual(release, compile_and_call(Dir, "ifdef_test_mod.erl", Lines, [])),
+    ?assertEqual(debug, compile_and_call(Dir, "ifdef_test_mod.erl", Lines, [{d, 'DEBUG'}]))
+  end).
+
+file_macro_names_real_file_test() ->
+  with_dir(fun(Dir) ->
+    File = filename:join(Dir, "file_test_mod.erl"),
+    ?assertEqual(File, compile_and_call(Dir, "file_test_mod.erl",
+                                        ["-module(file_test_mod).",
+                                         "-export([value/0]).",
+                                         "value() -> ?FILE."], []))
+  end).
+
+encoding_comment_test() ->
+  with_dir(fun(Dir) ->
+    ?assertEqual([945, 946], compile_and_call(Dir, "enc_test_mod.erl",
+                                              ["%% -*- coding: utf-8 -*-",
+                                               "-module(enc_test_mod).",
+                                               "-export([value/0]).",
+                                               "value() -> \"" ++ [945, 946] ++ "\"."], []))
+  end).
+
+errors_are_reported_test() ->
+  with_dir(fun(Dir) ->
+    File = filename:join(Dir, "bad_test_mod.erl"),
+    Source = <<"-module(bad_test_mod).\n-include(\"missing.hrl\").\nf( -> ok.\n">>,
+    ?assertMatch({error, [_ | _], _}, erlide_builder:compile_source(File, Source, []))
+  end).
@@ -0,0 +1,53 @@
+%%
+ % Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ %
+ %    Licensed under the Apache License, Version 2.0 (the "License");
+ %    you may not use this file except in compliance with the License.
+ %    You may obtain a copy of the License at
+ %
+ %        http://www.apache.org/licenses/LICENSE-2.0
+ %
+ %    Unless required by applicable law or agreed to in writing, software
+ %    distributed under the License is distributed on an "AS IS" BASIS,
+ %    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ %    See the License for the specific language governing permissions and
+ %    limitations under the License.
+ %
+
+-module(erlide_syntax_check_tests).
+
+-include_lib("eunit/include/eunit.hrl").
+
+check(Lines) ->
+  ok = erlide_syntax_check:start(),
+  erlide_syntax_check:check_for_errors_and_warnings(string:join(Lines, "\n") ++ "\n", "test.erl").
+
+behaviour_test() ->
+  ?assertEqual([], check(["-module(test).",
+                          "-behaviour(gen_server).",
+                          "-export([init/1]).",
+                          "init(Args) -> {ok, Args}."])).
+
+on_load_test() ->
+  ?assertEqual([], check(["-module(test).",
+                          "-on_load(init/0).",
+                          "init() -> ok."])).
+
+compile_inline_test() ->
+  ?assertEqual([], check(["-module(test).",
+                          "-compile({inline, [f/1]}).",
+                          "-export([g/1]).",
+                          "f(X) -> X.",
+                          "g(X) -> f(X)."])).
+
+compile_nowarn_test() ->
+  ?assertEqual([], check(["-module(test).",
+                          "-compile({nowarn_unused_function, [f/1]}).",
+                          "f(X) -> X."])).
+
+form_errors_still_reported_test() ->
+  [{{{Line, _}, _}, warning, _}] = check(["-module(test).",
+                                          "-behaviour(gen_server).",
+                                          "-export([f/1]).",
+                                          "f(X) -> Y = 1, X."]),
+  ?assertEqual(4, Line).
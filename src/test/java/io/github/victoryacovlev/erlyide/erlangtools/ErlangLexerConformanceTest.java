@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import com.ericsson.otp.erlang.*;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scans every line of lexer corpus both with Java lexer and with
+ * erlide_syntax_check:scan_lines/1 run by local erl, and compares tokens.
+ * Skipped if there is no erl in PATH.
+ */
+public class ErlangLexerConformanceTest {
+
+    private static final File CORPUS_DIR = new File("src/test/resources/lexer_corpus");
+    private static final File HELPER_SOURCE = new File("src/main/resources/erlang_helper_modules/src/erlide_syntax_check.erl");
+
+    private static boolean isErlangAvailable() {
+        try {
+            return 0 == new ProcessBuilder("erl", "-noshell", "-eval", "halt().").inheritIO().start().waitFor();
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static OtpErlangObject scanUsingErlang(List<String> lines) throws Exception {
+        // Lines go to erl and back in external term format, so reply is the same as RPC one
+        final Path work = Files.createTempDirectory("erlyide_lexer_test");
+        final Path input = work.resolve("input.bin");
+        final Path output = work.resolve("output.bin");
+        OtpErlangObject[] erlLines = new OtpErlangObject[lines.size()];
+        for (int i=0; i<lines.size(); ++i) {
+            erlLines[i] = new OtpErlangTuple(new OtpErlangObject[]{
+                    new OtpErlangInt(i + 1),
+                    new OtpErlangString(lines.get(i))
+            });
+        }
+        OtpOutputStream stream = new OtpOutputStream();
+        stream.write1(OtpExternal.versionTag);
+        stream.write_any(new OtpErlangList(erlLines));
+        Files.write(input, stream.toByteArray());
+        final String script =
+                "[Src, Dir, In, Out] = init:get_plain_arguments()," +
+                "{ok, _} = compile:file(Src, [{outdir, Dir}, report])," +
+                "code:add_patha(Dir)," +
+                "{ok, Bin} = file:read_file(In)," +
+                "ok = file:write_file(Out, term_to_binary(erlide_syntax_check:scan_lines(binary_to_term(Bin))))," +
+                "halt().";
+        final int exitCode = new ProcessBuilder("erl", "-noshell", "-eval", script, "-extra",
+                HELPER_SOURCE.getAbsolutePath(), work.toString(), input.toString(), output.toString())
+                .inheritIO().start().waitFor();
+        assertTrue("erl failed with code " + exitCode, 0 == exitCode);
+        return new OtpInputStream(Files.readAllBytes(output)).read_any();
+    }
+
+    private static boolean sameTokens(SplitResult javaResult, SplitResult erlangResult) {
+        if (javaResult.tokens.size() != erlangResult.tokens.size()) {
+            return false;
+        }
+        for (int i=0; i<javaResult.tokens.size(); ++i) {
+            ErlToken javaToken = javaResult.tokens.get(i);
+            ErlToken erlangToken = erlangResult.tokens.get(i);
+            if (javaToken.type != erlangToken.type || javaToken.column != erlangToken.column
+                    || !javaToken.text.equals(erlangToken.text)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void javaLexerAgreesWithErlScan() throws Exception {
+        Assume.assumeTrue(isErlangAvailable());
+        final ErlangCompiler compiler = new ErlangCompiler(null);
+        List<String> mismatches = new LinkedList<>();
+        int comparedLines = 0;
+        File[] corpusFiles = CORPUS_DIR.listFiles();
+        assertTrue(null != corpusFiles && corpusFiles.length > 0);
+        for (File corpusFile : corpusFiles) {
+            final String text = new String(Files.readAllBytes(corpusFile.toPath()), StandardCharsets.UTF_8);
+            final List<String> lines = new ArrayList<>();
+            for (String line : text.split("\n", -1)) {
+                lines.add(line);
+            }
+            List<SplitResult> javaResults = compiler.splitLinesIntoLexemsLocally(lines, 1, ErlLexerState.NORMAL);
+            List<SplitResult> erlangResults = compiler.parseScanLinesReply(scanUsingErlang(lines), lines.size());
+            assertTrue("bad scan_lines reply", null != erlangResults);
+            ErlLexerState stateBefore = ErlLexerState.NORMAL;
+            for (int i=0; i<lines.size(); ++i) {
+                final SplitResult javaResult = javaResults.get(i);
+                final SplitResult erlangResult = erlangResults.get(i);
+                // Only lines scanned as a whole are comparable, erl_scan knows nothing about previous lines;
+                // lines erl_scan rejects (e.g. sigils before OTP 27) are not comparable too
+                final boolean comparable = ErlLexerState.NORMAL == stateBefore
+                        && ErlLexerState.NORMAL == javaResult.endState && null != erlangResult;
+                stateBefore = javaResult.endState;
+                if (!comparable) {
+                    continue;
+                }
+                comparedLines++;
+                compiler.detectSpecialTypes(erlangResult, lines.get(i));
+                if (!sameTokens(javaResult, erlangResult)) {
+                    mismatches.add(corpusFile.getName() + ":" + (i + 1) + ": Java " + javaResult.tokens
+                            + " vs erl_scan " + erlangResult.tokens);
+                }
+            }
+        }
+        assertTrue("no lines compared", comparedLines > 0);
+        assertTrue(String.join("\n", mismatches), mismatches.isEmpty());
+    }
+
+}
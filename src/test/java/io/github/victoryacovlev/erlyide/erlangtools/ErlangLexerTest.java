@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Victor Yacovlev <v.yacovlev@gmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.github.victoryacovlev.erlyide.erlangtools;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Expected tokens are the ones erl_scan:string(Line, {1, 1}, [return]) gives.
+ */
+public class ErlangLexerTest {
+
+    private final ErlangLexer lexer = new ErlangLexer();
+
+    private SplitResult split(final String text) {
+        return lexer.splitLineIntoLexems(text, 1, ErlLexerState.NORMAL);
+    }
+
+    private static void assertToken(ErlToken token, ErlToken.Category type, int column, final String text) {
+        assertEquals(type, token.type);
+        assertEquals(column, token.column);
+        assertEquals(text, token.text);
+    }
+
+    @Test
+    public void functionClause() {
+        final SplitResult result = split("foo(X) -> X.");
+        assertNull(result.error);
+        final List<ErlToken> tokens = result.tokens;
+        assertEquals(9, tokens.size());
+        assertToken(tokens.get(0), ErlToken.Category.ATOM, 1, "foo");
+        assertToken(tokens.get(1), ErlToken.Category.OPERATOR, 4, "(");
+        assertToken(tokens.get(2), ErlToken.Category.VAR, 5, "X");
+        assertToken(tokens.get(3), ErlToken.Category.OPERATOR, 6, ")");
+        assertToken(tokens.get(4), ErlToken.Category.WHITE_SPACE, 7, " ");
+        assertToken(tokens.get(5), ErlToken.Category.OPERATOR, 8, "->");
+        assertToken(tokens.get(6), ErlToken.Category.WHITE_SPACE, 10, " ");
+        assertToken(tokens.get(7), ErlToken.Category.VAR, 11, "X");
+        assertToken(tokens.get(8), ErlToken.Category.DOT, 12, ".");
+    }
+
+    @Test
+    public void stringsAndEscapes() {
+        final List<ErlToken> tokens = split("\"a\\tb\\x41\\x{42}\\103\\^a\"").tokens;
+        assertEquals(1, tokens.size());
+        assertToken(tokens.get(0), ErlToken.Category.STRING, 1, "a\tbABC\u0001");
+    }
+
+    @Test
+    public void unterminatedStringContinues() {
+        final SplitResult first = split("\"abc");
+        assertEquals(ErlLexerState.IN_STRING, first.endState);
+        assertToken(first.tokens.get(0), ErlToken.Category.STRING, 1, "abc");
+        final SplitResult second = lexer.splitLineIntoLexems("def\" x", 2, first.endState);
+        assertEquals(ErlLexerState.NORMAL, second.endState);
+        assertToken(second.tokens.get(0), ErlToken.Category.STRING, 1, "def");
+        assertToken(second.tokens.get(2), ErlToken.Category.ATOM, 6, "x");
+    }
+
+    @Test
+    public void integers() {
+        final List<ErlToken> tokens = split("42 16#FF 2#1010 1_000 36#z").tokens;
+        assertToken(tokens.get(0), ErlToken.Category.INTEGER, 1, "42");
+        assertToken(tokens.get(2), ErlToken.Category.INTEGER, 4, "255");
+        assertToken(tokens.get(4), ErlToken.Category.INTEGER, 10, "10");
+        assertToken(tokens.get(6), ErlToken.Category.INTEGER, 17, "1000");
+        assertToken(tokens.get(8), ErlToken.Category.INTEGER, 23, "35");
+    }
+
+    @Test
+    public void integersOutOfLongRange() {
+        final List<ErlToken> tokens = split("16#FFFFFFFFFFFFFFFFFF 123456789012345678901234567890").tokens;
+        assertToken(tokens.get(0), ErlToken.Category.INTEGER, 1, "4722366482869645213695");
+        assertToken(tokens.get(2), ErlToken.Category.INTEGER, 23, "123456789012345678901234567890");
+    }
+
+    @Test
+    public void floats() {
+        final List<ErlToken> tokens = split("1.5 2.0e3 1.0E-2").tokens;
+        assertToken(tokens.get(0), ErlToken.Category.FLOAT, 1, "1.5");
+        assertToken(tokens.get(2), ErlToken.Category.FLOAT, 5, "2000.0");
+        assertToken(tokens.get(4), ErlToken.Category.FLOAT, 11, "0.01");
+    }
+
+    @Test
+    public void quotedAtoms() {
+        final List<ErlToken> tokens = split("'hello world' 'it\\'s'").tokens;
+        assertEquals(3, tokens.size());
+        assertToken(tokens.get(0), ErlToken.Category.ATOM, 1, "hello world");
+        assertToken(tokens.get(2), ErlToken.Category.ATOM, 15, "it's");
+    }
+
+    @Test
+    public void characters() {
+        final List<ErlToken> tokens = split("$a $\\n $\\x{41} $\\101 $ ").tokens;
+        assertToken(tokens.get(0), ErlToken.Category.INTEGER, 1, "97");
+        assertToken(tokens.get(2), ErlToken.Category.INTEGER, 4, "10");
+        assertToken(tokens.get(4), ErlToken.Category.INTEGER, 8, "65");
+        assertToken(tokens.get(6), ErlToken.Category.INTEGER, 16, "65");
+        assertToken(tokens.get(8), ErlToken.Category.INTEGER, 22, "32");
+    }
+
+    @Test
+    public void comments() {
+        final List<ErlToken> tokens = split("ok. % done").tokens;
+        assertEquals(3, tokens.size());
+        assertToken(tokens.get(0), ErlToken.Category.ATOM, 1, "ok");
+        assertToken(tokens.get(1), ErlToken.Category.DOT, 3, ".");
+        assertToken(tokens.get(2), ErlToken.Category.COMMENT, 5, "% done");
+    }
+
+    @Test
+    public void escapesOutOfUnicodeRangeAreErrors() {
+        final SplitResult tooLarge = split("\"a\\x{110000}b\"");
+        assertNotNull(tooLarge.error);
+        assertToken(tooLarge.tokens.get(0), ErlToken.Category.STRING, 1, "ab");
+
+        final SplitResult overflow = split("'\\x{FFFFFFFFF}'");
+        assertNotNull(overflow.error);
+        assertEquals(ErlLexerState.NORMAL, overflow.endState);
+
+        final SplitResult surrogate = split("$\\x{D800}");
+        assertNotNull(surrogate.error);
+        assertToken(surrogate.tokens.get(0), ErlToken.Category.UNDEFINED, 1, "$\\x{D800}");
+    }
+
+}
@@ -0,0 +1,51 @@
+%% Lexer conformance corpus: every line is scanned by Java lexer and by erl_scan
+-module(literals).
+-export([atoms/0, chars/0, integers/0, floats/0, strings/0, sigils/0]).
+
+-define(NAME, 'quoted name').
+
+atoms() ->
+    [ok, 'ok', 'hello world', 'it\'s', 'tab\there', 'back\\slash', '', 'Caps',
+     node@host, 'a\x{41}b', 'octal\101', ?NAME, ?MODULE].
+
+chars() ->
+    [$a, $Z, $0, $ , $\n, $\t, $\s, $\\, $\', $\", $\101, $\x41, $\x{3b1}, $\^a, $%, $., $$].
+
+integers() ->
+    [0, 42, 1_000_000, 2#1010, 8#777, 16#FF, 16#ff_ff, 36#Zz,
+     123456789012345678901234567890, 16#FFFFFFFFFFFFFFFFFF, -7, 18446744073709551616].
+
+floats() ->
+    [0.0, 1.5, 3.14159, 2.0e3, 2.0E3, 1.0e-2, 1.0e+10, 6.022_140e23, 1_000.5].
+
+strings() ->
+    ["", "plain", "with \"quotes\"", "tab\there", "nl\n", "octal\101\1\12",
+     "hex\x41\x{42}", "ctrl\^a\^Z", "latin1 ÿ", "unicode \x{3b1}\x{1F600}", "percent % not comment"].
+
+operators(A, B) ->
+    A =:= B orelse A =/= B andalso A =< B, A >= B, A /= B, A == B,
+    [X || X <- A, X > 1], << <<Y>> || <<Y>> <= B >>, #{a => 1, b := 2},
+    A ++ B -- A, A bor B band bnot A bxor B bsl 1 bsr 2, A div B rem 3.
+
+control(X) ->
+    case X of
+        {ok, V} when is_integer(V) -> V;
+        _ -> try catch_me(X) of R -> R catch error:_ -> undefined after ok end
+    end.
+
+sigils() ->
+    [~"plain", ~s"lower", ~S"verbatim \n", ~b"binary", ~B"raw \t", ~s{curly}, ~s(parens),
+     ~s[brackets], ~s<angles>, ~s/slashes/, ~s|bars|, ~s'quotes', ~s`backticks`, ~s#hashes#].
+
+triple_quoted() ->
+    """
+    Line one
+      "quoted" and 'single' and $c inside
+    """.
+
+triple_quoted_sigil() ->
+    ~S"""
+    \n is not an escape here
+    """.
+
+after_strings() -> {done, 1.0, 16#10, 'x'}. % trailing comment